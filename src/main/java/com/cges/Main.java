@@ -5,8 +5,12 @@ import static picocli.CommandLine.ArgGroup;
 import static picocli.CommandLine.Command;
 import static picocli.CommandLine.Option;
 
+import com.cges.algorithm.DeviationOracle;
+import com.cges.algorithm.DeviationSolver;
+import com.cges.algorithm.OnDemandDeviationSolver;
 import com.cges.algorithm.RunGraphSolver;
 import com.cges.graph.FormulaHistoryGame;
+import com.cges.graph.GoalAutomata;
 import com.cges.graph.RunGraph;
 import com.cges.graph.SuspectGame;
 import com.cges.model.Agent;
@@ -14,6 +18,8 @@ import com.cges.model.ConcurrentGame;
 import com.cges.model.PayoffAssignment;
 import com.cges.output.DotWriter;
 import com.cges.output.Formatter;
+import com.cges.parity.ParityGameSolver;
+import com.cges.parity.PreprocessingSolver;
 import com.cges.parser.GameParser;
 import com.cges.parser.Module;
 import com.cges.parser.ModuleGame;
@@ -44,6 +50,7 @@ import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import javax.annotation.Nullable;
 
@@ -94,6 +101,24 @@ public final class Main implements Callable<Void> {
                     "--rg-solver"}, description = "Solver to search for a lasso. Valid: ${COMPLETION-CANDIDATES}, default: ${DEFAULT-VALUE}")
     private RunGraphSolver.LassoSolver solver = RunGraphSolver.LassoSolver.GRAPH_SEARCH;
 
+    @Option(names = {
+                    "--rg-automaton"}, description = "Automata for the goals in the run graph. Valid: ${COMPLETION-CANDIDATES}, default: ${DEFAULT-VALUE}")
+    private GoalAutomata.AutomatonType automatonType = GoalAutomata.AutomatonType.NBA;
+
+    @Option(names = {
+                    "--bitstate-bits"}, description = "Size of the visited sets of the BITSTATE solver as power of two, between 6 and 32, default: ${DEFAULT-VALUE}")
+    private int bitstateBits = RunGraphSolver.DEFAULT_BITSTATE_BITS;
+
+    @Option(names = {
+                    "--parity-solver"}, description = "Solver for the parity games of the punishment strategies. Valid: ${COMPLETION-CANDIDATES}, default: ${DEFAULT-VALUE}")
+    private ParityGameSolver.Backend paritySolverBackend = ParityGameSolver.Backend.OINK;
+
+    @Option(names = {"--parity-preprocessing"}, negatable = true, description = "Simplify the parity games before solving them (default: ${DEFAULT-VALUE})")
+    private boolean parityPreprocessing = false;
+
+    @Option(names = {"--on-demand-punishment"}, description = "Check the punishment of deviations only for the moves of candidate lassos, searching again without the moves which fail")
+    private boolean onDemandPunishment = false;
+
     @ArgGroup(heading = "game", multiplicity = "1")
     private GameSource gameSource;
 
@@ -153,22 +178,65 @@ public final class Main implements Callable<Void> {
 
     private <S> Stream<GameSolution<S>> computeSolutions(ConcurrentGame<S> game) throws IOException {
         var historyGame = new FormulaHistoryGame<>(game);
+        log.log(Level.FINE, () -> "Agent relevance: %s".formatted(historyGame.relevanceStatistics()));
         writeIfPresent(writeDotHistoryGame, historyGame, DotWriter::writeHistoryGame);
         var suspectGame = new SuspectGame<>(historyGame);
         writeIfPresent(writeDotSuspectGame, suspectGame, DotWriter::writeSuspectGame);
+        // Shared by all payoff assignments, so that each goal is translated only once
+        var goalAutomata = new GoalAutomata(game, automatonType);
+        ParityGameSolver paritySolver = parityPreprocessing
+                        ? new PreprocessingSolver(paritySolverBackend.create())
+                        : paritySolverBackend.create();
 
         Set<Agent> undefinedAgents = game.agents().stream().filter(a -> a.payoff().equals(Agent.Payoff.UNDEFINED))
                         .collect(Collectors.toSet());
-        return Sets.powerSet(undefinedAgents).stream().map(PayoffAssignment::new).map(payoff -> {
+        if (onDemandPunishment) {
+            return Sets.powerSet(undefinedAgents).stream().map(PayoffAssignment::new).map(payoff -> {
+                log.log(Level.INFO, () -> "Processing: %s".formatted(Formatter.format(payoff, game)));
+                Stopwatch timer = Stopwatch.createStarted();
+                var deviationSolver = new OnDemandDeviationSolver<>(suspectGame, payoff, paritySolver);
+                var solution = RunGraphSolver.solveOnDemand(
+                                () -> new RunGraph<>(suspectGame, payoff, goalAutomata, deviationSolver),
+                                deviationSolver, solver, bitstateBits);
+                log.log(Level.INFO, () -> "Solution: %s".formatted(timer));
+                return solution.map(s -> new GameSolution<>(suspectGame, s.runGraph(), payoff, s.strategy()));
+            }).flatMap(Optional::stream);
+        }
+
+        // An agent without a move at the initial state whose deviations can be punished wins against every coalition,
+        // so it wins in every equilibrium
+        Map<Agent, DeviationSolver<S>> agentSolvers = DeviationSolver.createForAgents(suspectGame, undefinedAgents,
+                        paritySolver);
+        Set<Agent> unpunishableAgents = agentSolvers.entrySet().stream()
+                        .filter(entry -> entry.getValue().movesWithoutLosingDeviation(historyGame.initialState())
+                                        .findAny().isEmpty())
+                        .map(Map.Entry::getKey).collect(Collectors.toUnmodifiableSet());
+        List<PayoffAssignment> payoffs = Sets.powerSet(Sets.difference(undefinedAgents, unpunishableAgents)).stream()
+                        .map(winning -> new PayoffAssignment(Sets.union(winning, unpunishableAgents).immutableCopy()))
+                        .toList();
+        log.log(Level.INFO, () -> "Pruned %d of %d payoff assignments, unpunishable agents: %s".formatted(
+                        (1L << undefinedAgents.size()) - payoffs.size(), 1L << undefinedAgents.size(),
+                        unpunishableAgents.stream().map(Agent::name).sorted().toList()));
+        // Built together, so that the parity games of all assignments are solved in one batch
+        List<DeviationOracle<S>> deviationSolvers = DeviationSolver.createAll(suspectGame, payoffs, paritySolver,
+                        agentSolvers);
+        return IntStream.range(0, payoffs.size()).mapToObj(index -> {
+            PayoffAssignment payoff = payoffs.get(index);
             log.log(Level.INFO, () -> "Processing: %s".formatted(Formatter.format(payoff, game)));
             Stopwatch timer = Stopwatch.createStarted();
-            RunGraph<S> runGraph = new RunGraph<>(suspectGame, payoff);
-            var strategy = RunGraphSolver.solve(runGraph, solver);
+            RunGraph<S> runGraph = new RunGraph<>(suspectGame, payoff, goalAutomata, deviationSolvers.get(index));
+            var strategy = RunGraphSolver.solve(runGraph, solver, bitstateBits);
             log.log(Level.INFO, () -> "Solution: %s".formatted(timer));
             return strategy.map(s -> new GameSolution<>(suspectGame, runGraph, payoff, s));
         }).flatMap(Optional::stream);
     }
 
+    private void logPortfolioWins() {
+        if (solver == RunGraphSolver.LassoSolver.PORTFOLIO) {
+            log.log(Level.INFO, () -> "Lasso search wins: %s".formatted(RunGraphSolver.portfolioWins()));
+        }
+    }
+
     private <S> List<GameSolution<S>> solve(Input<S> input) throws IOException {
         Stopwatch overall = Stopwatch.createStarted();
         var game = input.game;
@@ -177,6 +245,7 @@ public final class Main implements Callable<Void> {
                                         .formatted(Formatter.format(solution.assignment(), game), solution.strategy())))
                         .toList();
         log.log(Level.INFO, () -> "Solving took %s overall".formatted(overall));
+        logPortfolioWins();
         if (!solutionList.isEmpty()) {
             if (writeDotSolution != null) {
                 if (writeDotSolution.contains("%A")) {
@@ -206,6 +275,15 @@ public final class Main implements Callable<Void> {
 
     @Override
     public Void call() throws Exception {
+        // Checked up front, the lasso search only starts after all parity games are solved
+        if (solver == RunGraphSolver.LassoSolver.BITSTATE) {
+            checkArgument(RunGraphSolver.MIN_BITSTATE_BITS <= bitstateBits
+                            && bitstateBits <= RunGraphSolver.MAX_BITSTATE_BITS,
+                            "Bitstate bits must be between %s and %s", RunGraphSolver.MIN_BITSTATE_BITS,
+                            RunGraphSolver.MAX_BITSTATE_BITS);
+            checkArgument(automatonType != GoalAutomata.AutomatonType.DPA,
+                            "The BITSTATE solver requires Buchi automata, use NBA or LDBA goal automata");
+        }
         Input<?> input = parseGame();
         if (!writeModule.isEmpty()) {
             Map<String, String> names = writeModule.stream().map(s -> s.split(","))
@@ -239,6 +317,7 @@ public final class Main implements Callable<Void> {
                 }
             }
             log.log(Level.INFO, () -> "Solving took %s overall".formatted(overall));
+            logPortfolioWins();
         } else {
             var solutionList = solve(input);
             try (var stream = open(writeOutput)) {
@@ -0,0 +1,106 @@
+package com.cges.algorithm;
+
+import com.cges.graph.RunGraph.SuccessorConsumer;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import java.util.BitSet;
+import java.util.function.IntPredicate;
+
+/**
+ * Closed walks through a set of colours within a strongly connected set of states, e.g. through all acceptance sets of
+ * a generalized Buchi condition. Such a walk in general has to visit states several times, hence it is not a simple
+ * cycle. The walk is built greedily: move along a shortest path to the closest edge of a colour not covered so far,
+ * and return to the start along a shortest path once all colours are covered.
+ */
+final class AcceptingWalk {
+    @FunctionalInterface
+    interface EdgeFunction {
+        void forEachEdge(int state, SuccessorConsumer action);
+    }
+
+    @FunctionalInterface
+    private interface EdgePredicate {
+        boolean test(int successor, int colours);
+    }
+
+    private AcceptingWalk() {
+    }
+
+    /**
+     * Returns a closed walk of length at least one from the given start state within the given states, such that the
+     * union of the colours of its edges contains the required colours. The walk begins with the start state and does
+     * not repeat it at the end. The states have to be strongly connected and their edges have to cover the colours.
+     */
+    static IntArrayList closedWalk(int start, IntPredicate within, int requiredColours, EdgeFunction edges) {
+        IntArrayList walk = new IntArrayList();
+        walk.add(start);
+        int current = start;
+        int covered = 0;
+        while ((covered & requiredColours) != requiredColours) {
+            int missing = requiredColours & ~covered;
+            covered |= appendPath(walk, current, within, edges, (successor, colours) -> (colours & missing) != 0);
+            current = walk.getInt(walk.size() - 1);
+        }
+        if (current != start || walk.size() == 1) {
+            appendPath(walk, current, within, edges, (successor, colours) -> successor == start);
+        }
+        walk.removeInt(walk.size() - 1);
+        return walk;
+    }
+
+    /** Returns a shortest path from the given state to one of the targets within the given states. */
+    static IntArrayList path(int from, IntPredicate targets, IntPredicate within, EdgeFunction edges) {
+        IntArrayList path = new IntArrayList();
+        path.add(from);
+        if (!targets.test(from)) {
+            appendPath(path, from, within, edges, (successor, colours) -> targets.test(successor));
+        }
+        return path;
+    }
+
+    // Appends a shortest path from the given state to the closest edge satisfying the goal, including the target of
+    // that edge, and returns the union of the colours along the path
+    private static int appendPath(IntArrayList walk, int from, IntPredicate within, EdgeFunction edges,
+                    EdgePredicate goal) {
+        IntArrayList queue = new IntArrayList();
+        IntArrayList predecessorIndex = new IntArrayList();
+        IntArrayList edgeColours = new IntArrayList();
+        BitSet visited = new BitSet();
+        queue.add(from);
+        predecessorIndex.add(-1);
+        edgeColours.add(0);
+        visited.set(from);
+        int[] found = {-1};
+        for (int head = 0; head < queue.size() && found[0] == -1; head++) {
+            int predecessor = head;
+            edges.forEachEdge(queue.getInt(head), (successor, colours) -> {
+                if (found[0] != -1 || !within.test(successor)) {
+                    return;
+                }
+                boolean isGoal = goal.test(successor, colours);
+                if (isGoal || !visited.get(successor)) {
+                    visited.set(successor);
+                    queue.add(successor);
+                    predecessorIndex.add(predecessor);
+                    edgeColours.add(colours);
+                    if (isGoal) {
+                        found[0] = queue.size() - 1;
+                    }
+                }
+            });
+        }
+        if (found[0] == -1) {
+            throw new IllegalStateException("No path from %d within the given states".formatted(from));
+        }
+
+        int pathStart = walk.size();
+        int covered = 0;
+        for (int i = found[0]; i != 0; i = predecessorIndex.getInt(i)) {
+            walk.add(queue.getInt(i));
+            covered |= edgeColours.getInt(i);
+        }
+        for (int i = pathStart, j = walk.size() - 1; i < j; i++, j--) {
+            walk.set(i, walk.set(j, walk.getInt(i)));
+        }
+        return covered;
+    }
+}
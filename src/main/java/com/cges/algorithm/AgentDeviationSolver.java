@@ -0,0 +1,91 @@
+package com.cges.algorithm;
+
+import com.cges.graph.HistoryGame;
+import com.cges.graph.HistoryGame.HistoryState;
+import com.cges.model.Agent;
+import com.cges.model.Move;
+import com.cges.parity.PriorityState;
+import com.google.common.collect.Iterables;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Answers for a set of losing agents by combining the solvers of the single agents. This is exact if no single
+ * deviation from a proposed move can be attributed to two of the losing agents: then each deviation has to be
+ * punished only for its one suspect, which is what the game of that agent decides. A move is safe if it is safe for
+ * all agents, and the punishment of a state is taken from the game of its suspect.
+ */
+final class AgentDeviationSolver<S> implements DeviationOracle<S> {
+    private final HistoryGame<S> historyGame;
+    private final Map<Agent, DeviationSolver<S>> agentSolvers;
+    private final Object2IntMap<HistoryState<S>> moveOffsets = new Object2IntOpenHashMap<>();
+    private final BitSet safeMoves = new BitSet();
+
+    AgentDeviationSolver(HistoryGame<S> historyGame, List<HistoryState<S>> historyStates,
+                    Map<Agent, DeviationSolver<S>> agentSolvers) {
+        this.historyGame = historyGame;
+        this.agentSolvers = Map.copyOf(agentSolvers);
+        moveOffsets.defaultReturnValue(-1);
+
+        int move = 0;
+        for (HistoryState<S> historyState : historyStates) {
+            moveOffsets.put(historyState, move);
+            int moves = (int) historyGame.transitions(historyState).count();
+            safeMoves.set(move, move + moves);
+            for (DeviationSolver<S> solver : agentSolvers.values()) {
+                int offset = solver.moveOffset(historyState);
+                for (int i = 0; i < moves; i++) {
+                    if (!solver.isSafe(offset + i)) {
+                        safeMoves.clear(move + i);
+                    }
+                }
+            }
+            move += moves;
+        }
+    }
+
+    @Override
+    public HistoryGame<S> historyGame() {
+        return historyGame;
+    }
+
+    @Override
+    public int moveOffset(HistoryState<S> historyState) {
+        int offset = moveOffsets.getInt(historyState);
+        assert offset >= 0 : "Unknown history state %s".formatted(historyState);
+        return offset;
+    }
+
+    @Override
+    public boolean isSafe(int move) {
+        return safeMoves.get(move);
+    }
+
+    @Override
+    public Set<PriorityState<S>> states(HistoryState<S> state, Move proposedMove) {
+        Set<PriorityState<S>> states = new HashSet<>();
+        agentSolvers.values().forEach(solver -> states.addAll(solver.states(state, proposedMove)));
+        return states;
+    }
+
+    @Override
+    public PriorityState<S> move(PriorityState<S> state) {
+        return solver(state).move(state);
+    }
+
+    @Override
+    public Set<PriorityState<S>> successors(PriorityState<S> state) {
+        return solver(state).successors(state);
+    }
+
+    // The states of the game of an agent all have exactly this agent as suspect
+    private DeviationSolver<S> solver(PriorityState<S> state) {
+        Set<Agent> suspects = state.isEve() ? state.eve().suspects() : state.adam().eveState().suspects();
+        return agentSolvers.get(Iterables.getOnlyElement(suspects));
+    }
+}
@@ -0,0 +1,48 @@
+package com.cges.algorithm;
+
+import com.cges.graph.HistoryGame;
+import com.cges.graph.HistoryGame.HistoryState;
+import com.cges.model.Move;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Decides which moves of the history game have no losing deviation, i.e. no deviation after which the losing agents
+ * cannot be kept losing, and punishes the deviations from such moves.
+ */
+public interface DeviationOracle<S> extends PunishmentStrategy<S> {
+    HistoryGame<S> historyGame();
+
+    /**
+     * The id of the first move of the history state for {@link #isSafe(int)}, the following moves are numbered in the
+     * order of {@link HistoryGame#forEachTransition}.
+     */
+    int moveOffset(HistoryState<S> historyState);
+
+    /** Whether the move with the given id has no losing deviation. */
+    boolean isSafe(int move);
+
+    default Stream<Move> movesWithoutLosingDeviation(HistoryState<S> historyState) {
+        int[] move = {moveOffset(historyState)};
+        List<Move> moves = new ArrayList<>();
+        historyGame().forEachTransition(historyState, transition -> {
+            if (isSafe(move[0]++)) {
+                moves.add(transition.move());
+            }
+        });
+        return moves.stream();
+    }
+
+    default boolean hasNoLosingDeviation(HistoryState<S> historyState, Move proposedMove) {
+        int[] move = {moveOffset(historyState)};
+        boolean[] safe = {false};
+        historyGame().forEachTransition(historyState, transition -> {
+            if (transition.move().equals(proposedMove)) {
+                safe[0] = isSafe(move[0]);
+            }
+            move[0] += 1;
+        });
+        return safe[0];
+    }
+}
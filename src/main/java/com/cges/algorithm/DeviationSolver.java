@@ -1,23 +1,27 @@
 package com.cges.algorithm;
 
-import static owl.automaton.acceptance.ParityAcceptance.Parity;
-
 import com.cges.graph.HistoryGame;
 import com.cges.graph.HistoryGame.HistoryState;
 import com.cges.graph.SuspectGame;
 import com.cges.graph.SuspectGame.EveState;
 import com.cges.model.Agent;
-import com.cges.model.ConcurrentGame;
 import com.cges.model.Move;
 import com.cges.model.PayoffAssignment;
-import com.cges.model.Transition;
-import com.cges.parity.OinkGameSolver;
+import com.cges.parity.ParityGameSolver;
 import com.cges.parity.Player;
 import com.cges.parity.PriorityState;
 import com.cges.parity.Solution;
 import com.cges.parity.SuspectParityGame;
-
-import java.util.EnumSet;
+import com.google.common.collect.Iterables;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -25,98 +29,181 @@ import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
-
-import owl.automaton.Automaton;
-import owl.automaton.ParityUtil;
-import owl.automaton.acceptance.ParityAcceptance;
-import owl.ltl.Conjunction;
-import owl.ltl.Disjunction;
-import owl.ltl.GOperator;
-import owl.ltl.LabelledFormula;
-import owl.ltl.Literal;
-import owl.ltl.rewriter.LiteralMapper;
-import owl.ltl.rewriter.SimplifierRepository;
-import owl.translations.LtlTranslationRepository;
-import owl.translations.LtlTranslationRepository.Option;
-
-public final class DeviationSolver<S> implements PunishmentStrategy<S> {
+
+public final class DeviationSolver<S> implements DeviationOracle<S> {
     private static final Logger logger = Logger.getLogger(DeviationSolver.class.getName());
-    // private static final Function<LabelledFormula, Automaton<?, ? extends
-    // ParityAcceptance>> translation =
-    // LtlTranslationRepository.LtlToDpaTranslation.DEFAULT.translation(
-    // EnumSet.of(Option.SIMPLIFY_AUTOMATON, Option.COMPLETE));
-    private static final Function<LabelledFormula, Automaton<?, ? extends ParityAcceptance>> translation = LtlTranslationRepository.LtlToDpaTranslation.SEJK16_EKRS17
-                    .translation(EnumSet.of(Option.SIMPLIFY_AUTOMATON));
 
     private final SuspectGame<S> suspectGame;
-    private final OinkGameSolver solver = new OinkGameSolver();
-    private final Map<Agent, Literal> agentLiterals;
-    private final List<String> atomicPropositions;
-    private final Set<Agent> losingAgents;
     private final SuspectParityGame<S> parityGame;
-    private final Solution<PriorityState<S>> paritySolution;
-
-    public DeviationSolver(SuspectGame<S> suspectGame, PayoffAssignment payoff) {
+    private Solution<PriorityState<S>> paritySolution;
+    // The moves of each history state are numbered in the order of HistoryGame#forEachTransition, starting at the
+    // offset of the state. A move is safe if no deviation from it is losing.
+    private final Object2IntMap<HistoryState<S>> moveOffsets = new Object2IntOpenHashMap<>();
+    private final BitSet safeMoves = new BitSet();
+
+    // Only builds the parity game, it is solved by the factory methods
+    private DeviationSolver(SuspectGame<S> suspectGame, Set<Agent> losingAgents) {
         this.suspectGame = suspectGame;
+        this.parityGame = new PunishmentGames<>(suspectGame, losingAgents).game(suspectGame.historyGame()
+                        .initialState());
+    }
+
+    public static <S> DeviationOracle<S> create(SuspectGame<S> suspectGame, PayoffAssignment payoff,
+                    ParityGameSolver solver) {
+        return createAll(suspectGame, List.of(payoff), solver).get(0);
+    }
+
+    /** Creates and solves the punishment game of each given agent losing alone. */
+    public static <S> Map<Agent, DeviationSolver<S>> createForAgents(SuspectGame<S> suspectGame,
+                    Collection<Agent> agents, ParityGameSolver solver) {
+        Map<Agent, DeviationSolver<S>> agentSolvers = new LinkedHashMap<>();
+        agents.forEach(agent -> agentSolvers.put(agent, new DeviationSolver<>(suspectGame, Set.of(agent))));
+        solveAll(List.copyOf(agentSolvers.values()), solver);
+        return agentSolvers;
+    }
+
+    public static <S> List<DeviationOracle<S>> createAll(SuspectGame<S> suspectGame, List<PayoffAssignment> payoffs,
+                    ParityGameSolver solver) {
+        return createAll(suspectGame, payoffs, solver, Map.of());
+    }
 
+    /**
+     * Creates the solvers for several payoff assignments, whose parity games are solved together by
+     * {@link ParityGameSolver#solveAll(List)}.
+     *
+     * <p>Unless a single deviation can be attributed to several losing agents, the deviations of each agent are
+     * punished independently. Then a move is safe for a set of losers iff it is safe for each of them, so only one
+     * game per agent is built and shared by all assignments in which the agent loses. The given, already solved
+     * games of single agents are reused. Otherwise, the assignment gets its own game over all its losers.</p>
+     */
+    public static <S> List<DeviationOracle<S>> createAll(SuspectGame<S> suspectGame, List<PayoffAssignment> payoffs,
+                    ParityGameSolver solver, Map<Agent, DeviationSolver<S>> solvedAgents) {
         HistoryGame<S> historyGame = suspectGame.historyGame();
-        ConcurrentGame<S> concurrentGame = historyGame.concurrentGame();
-        losingAgents = concurrentGame.agents().stream().filter(payoff::isLoser).collect(Collectors.toSet());
-        atomicPropositions = Stream
-                        .concat(concurrentGame.atomicPropositions().stream(), losingAgents.stream().map(Agent::name))
-                        .toList();
-        agentLiterals = losingAgents.stream().collect(
-                        Collectors.toMap(Function.identity(), a -> Literal.of(atomicPropositions.indexOf(a.name()))));
-        assert Set.copyOf(atomicPropositions).size() == atomicPropositions.size();
-
-        var historyState = historyGame.initialState();
-        var eveState = new EveState<>(historyState, losingAgents);
-        var goal = SimplifierRepository.SYNTACTIC_FAIRNESS
-                        .apply(LabelledFormula.of(
-                                        Disjunction.of(losingAgents.stream()
-                                                        .map(a -> Conjunction.of(GOperator.of(agentLiterals.get(a)),
-                                                                        historyState.goal(a))))
-                                                        .not(),
-                                        atomicPropositions));
-
-        var gameSolution = solveParityGame(eveState, goal);
-        parityGame = gameSolution.parityGame();
-        paritySolution = gameSolution.solution();
+        List<HistoryState<S>> historyStates = reachableStates(historyGame);
+        List<Set<Agent>> losers = payoffs.stream().map(payoff -> historyGame.concurrentGame().agents().stream()
+                        .filter(payoff::isLoser).collect(Collectors.toUnmodifiableSet())).toList();
+
+        Map<Agent, DeviationSolver<S>> agentSolvers = new LinkedHashMap<>(solvedAgents);
+        Map<Set<Agent>, DeviationSolver<S>> jointSolvers = new LinkedHashMap<>();
+        List<DeviationSolver<S>> unsolved = new ArrayList<>();
+        for (Set<Agent> losingAgents : losers) {
+            if (losingAgents.isEmpty() || hasJointDeviations(suspectGame, historyStates, losingAgents)) {
+                jointSolvers.computeIfAbsent(losingAgents, agents -> {
+                    var jointSolver = new DeviationSolver<>(suspectGame, agents);
+                    unsolved.add(jointSolver);
+                    return jointSolver;
+                });
+            } else {
+                losingAgents.forEach(agent -> agentSolvers.computeIfAbsent(agent, a -> {
+                    var agentSolver = new DeviationSolver<>(suspectGame, Set.of(a));
+                    unsolved.add(agentSolver);
+                    return agentSolver;
+                }));
+            }
+        }
+        logger.log(Level.INFO, "Solving {0} punishment games for {1} payoff assignments",
+                        new Object[]{unsolved.size(), payoffs.size()});
+        solveAll(unsolved, solver);
+
+        return losers.stream().<DeviationOracle<S>>map(losingAgents -> {
+            DeviationSolver<S> jointSolver = jointSolvers.get(losingAgents);
+            if (jointSolver != null) {
+                return jointSolver;
+            }
+            if (losingAgents.size() == 1) {
+                return agentSolvers.get(Iterables.getOnlyElement(losingAgents));
+            }
+            Map<Agent, DeviationSolver<S>> solvers = new HashMap<>();
+            losingAgents.forEach(agent -> solvers.put(agent, agentSolvers.get(agent)));
+            return new AgentDeviationSolver<>(historyGame, historyStates, solvers);
+        }).toList();
+    }
+
+    private static <S> void solveAll(List<DeviationSolver<S>> deviationSolvers, ParityGameSolver solver) {
+        List<Solution<PriorityState<S>>> solutions = solver.solveAll(deviationSolvers.stream()
+                        .map(deviationSolver -> deviationSolver.parityGame).toList());
+        for (int i = 0; i < deviationSolvers.size(); i++) {
+            deviationSolvers.get(i).setSolution(solutions.get(i));
+        }
+    }
+
+    private static <S> List<HistoryState<S>> reachableStates(HistoryGame<S> historyGame) {
+        Set<HistoryState<S>> reached = new HashSet<>(List.of(historyGame.initialState()));
+        List<HistoryState<S>> states = new ArrayList<>(reached);
+        for (int i = 0; i < states.size(); i++) {
+            historyGame.forEachTransition(states.get(i), transition -> {
+                if (reached.add(transition.destination())) {
+                    states.add(transition.destination());
+                }
+            });
+        }
+        return states;
+    }
+
+    // Whether some deviation from a proposed move could be performed by several of the losing agents alone
+    private static <S> boolean hasJointDeviations(SuspectGame<S> suspectGame, List<HistoryState<S>> historyStates,
+                    Set<Agent> losingAgents) {
+        if (losingAgents.size() < 2) {
+            return false;
+        }
+        boolean[] joint = {false};
+        for (HistoryState<S> historyState : historyStates) {
+            suspectGame.forEachSuccessor(new EveState<>(historyState, losingAgents),
+                            adam -> suspectGame.forEachDeviationSuccessor(adam, eve -> {
+                                if (eve.suspects().size() > 1) {
+                                    joint[0] = true;
+                                }
+                            }));
+            if (joint[0]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void setSolution(Solution<PriorityState<S>> solution) {
+        paritySolution = solution;
         assert paritySolution.oddWinning().stream().allMatch(s -> {
             if (parityGame.owner(s) == Player.EVEN) {
                 return parityGame.successors(s).allMatch(paritySolution.oddWinning()::contains);
             }
             return parityGame.successors(s).anyMatch(paritySolution.oddWinning()::contains);
         }) : "Parity game solution is inconsistent";
-    }
 
-    private LabelledFormula eveGoal(HistoryState<S> historyState) {
-        return LabelledFormula.of(Disjunction
-                        .of(losingAgents.stream().map(
-                                        a -> Conjunction.of(GOperator.of(agentLiterals.get(a)), historyState.goal(a))))
-                        .not(), atomicPropositions);
+        HistoryGame<S> historyGame = suspectGame.historyGame();
+        moveOffsets.defaultReturnValue(-1);
+        int[] move = {0};
+        for (HistoryState<S> historyState : parityGame.historyStates()) {
+            moveOffsets.put(historyState, move[0]);
+            historyGame.forEachTransition(historyState, transition -> {
+                assert parityGame.deviationStates(historyState, transition.move()).map(paritySolution::winner)
+                                .distinct().count() <= 1
+                                : parityGame.deviationStates(historyState, transition.move())
+                                                .collect(Collectors.toMap(Function.identity(), paritySolution::winner));
+                if (parityGame.deviationStates(historyState, transition.move())
+                                .allMatch(paritySolution.oddWinning()::contains)) {
+                    safeMoves.set(move[0]);
+                }
+                move[0] += 1;
+            });
+        }
     }
 
-    public Stream<Move> movesWithoutLosingDeviation(HistoryState<S> historyState) {
-        return suspectGame.historyGame().transitions(historyState).map(Transition::move)
-                        .filter(m -> hasNoLosingDeviation(historyState, m));
+    @Override
+    public HistoryGame<S> historyGame() {
+        return suspectGame.historyGame();
     }
 
-    public boolean hasNoLosingDeviation(HistoryState<S> historyState, Move proposedMove) {
-        assert parityGame.deviationStates(historyState, proposedMove).map(paritySolution::winner)
-                        .collect(Collectors.toSet()).size() <= 1
-                        : parityGame.deviationStates(historyState, proposedMove)
-                                        .collect(Collectors.toMap(Function.identity(), paritySolution::winner));
-        return parityGame.deviationStates(historyState, proposedMove).map(paritySolution::winner)
-                        .allMatch(Player.ODD::equals);
+    @Override
+    public int moveOffset(HistoryState<S> historyState) {
+        int offset = moveOffsets.getInt(historyState);
+        assert offset >= 0 : "Unknown history state %s".formatted(historyState);
+        return offset;
     }
 
-    private boolean computeWinning(HistoryState<S> historyState) {
-        var solution = solveParityGame(new EveState<>(historyState, losingAgents), eveGoal(historyState));
-        return suspectGame.historyGame().transitions(historyState).map(Transition::move)
-                        .anyMatch(move -> solution.parityGame.deviationStates(historyState, move)
-                                        .map(solution.solution()::winner).allMatch(Player.ODD::equals));
+    @Override
+    public boolean isSafe(int move) {
+        return safeMoves.get(move);
     }
 
     @Override
@@ -136,22 +223,4 @@ public final class DeviationSolver<S> implements PunishmentStrategy<S> {
     public Set<PriorityState<S>> successors(PriorityState<S> state) {
         return state.isEve() ? Set.of(move(state)) : parityGame.successors(state).collect(Collectors.toSet());
     }
-
-    record ParitySolution<S>(SuspectParityGame<S> parityGame, Solution<PriorityState<S>> solution) {
-    }
-
-    private ParitySolution<S> solveParityGame(EveState<S> eveState, LabelledFormula goal) {
-        var shifted = LiteralMapper.shiftLiterals(goal);
-        @SuppressWarnings("unchecked")
-        var automaton = (Automaton<Object, ParityAcceptance>) ParityUtil.convert(translation.apply(shifted.formula),
-                        Parity.MIN_EVEN);
-        assert !automaton.states().isEmpty();
-        var parityGame = SuspectParityGame.create(suspectGame, eveState, automaton);
-        if (parityGame.states().isEmpty()) {
-            logger.log(Level.INFO, "State {0} with goal {1} has no possible deviations", new Object[]{eveState, goal});
-            return new ParitySolution<>(parityGame, new Solution<>(Set.of(), Map.of()));
-        }
-        var paritySolution = solver.solve(parityGame);
-        return new ParitySolution<>(parityGame, paritySolution);
-    }
 }
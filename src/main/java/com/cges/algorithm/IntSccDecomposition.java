@@ -0,0 +1,115 @@
+package com.cges.algorithm;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Iterative Tarjan SCC decomposition over graphs whose states are identified by non-negative ints. The graph may be
+ * discovered on the fly, i.e. ids are only required to be dense over the states reached from the initial states.
+ */
+final class IntSccDecomposition {
+    @FunctionalInterface
+    interface SuccessorFunction {
+        void forEachSuccessor(int state, IntConsumer action);
+    }
+
+    private final SuccessorFunction graph;
+    private int[] index = new int[64];
+    private int[] lowLink = new int[64];
+    private final BitSet onStack = new BitSet();
+    private final BitSet selfLoop = new BitSet();
+    private final IntArrayList stack = new IntArrayList();
+    private final List<int[]> sccs = new ArrayList<>();
+    private int counter = 0;
+
+    private IntSccDecomposition(SuccessorFunction graph) {
+        this.graph = graph;
+        Arrays.fill(index, -1);
+    }
+
+    /**
+     * Returns all SCCs reachable from the given states which are not transient (i.e. contain at least one
+     * transition), in reverse topological order.
+     */
+    static List<int[]> nonTransientSccs(int[] initialStates, SuccessorFunction graph) {
+        IntSccDecomposition decomposition = new IntSccDecomposition(graph);
+        for (int initialState : initialStates) {
+            decomposition.ensureCapacity(initialState);
+            if (decomposition.index[initialState] == -1) {
+                decomposition.run(initialState);
+            }
+        }
+        return decomposition.sccs;
+    }
+
+    private void ensureCapacity(int state) {
+        if (state >= index.length) {
+            int oldLength = index.length;
+            int newLength = Math.max(state + 1, oldLength * 2);
+            index = Arrays.copyOf(index, newLength);
+            lowLink = Arrays.copyOf(lowLink, newLength);
+            Arrays.fill(index, oldLength, newLength, -1);
+        }
+    }
+
+    private void run(int root) {
+        // Successors still to be processed by the frames of the call stack, the frame of state i owns all entries
+        // of pending starting at frameStart[i]
+        IntArrayList callStack = new IntArrayList();
+        IntArrayList frameStart = new IntArrayList();
+        IntArrayList pending = new IntArrayList();
+
+        IntConsumer push = state -> {
+            index[state] = counter;
+            lowLink[state] = counter;
+            counter += 1;
+            stack.add(state);
+            onStack.set(state);
+            callStack.add(state);
+            frameStart.add(pending.size());
+            graph.forEachSuccessor(state, successor -> {
+                ensureCapacity(successor);
+                pending.add(successor);
+            });
+        };
+        push.accept(root);
+
+        while (!callStack.isEmpty()) {
+            int state = callStack.getInt(callStack.size() - 1);
+            if (pending.size() > frameStart.getInt(frameStart.size() - 1)) {
+                int successor = pending.removeInt(pending.size() - 1);
+                if (successor == state) {
+                    selfLoop.set(state);
+                }
+                if (index[successor] == -1) {
+                    push.accept(successor);
+                } else if (onStack.get(successor)) {
+                    lowLink[state] = Math.min(lowLink[state], index[successor]);
+                }
+                continue;
+            }
+
+            callStack.removeInt(callStack.size() - 1);
+            frameStart.removeInt(frameStart.size() - 1);
+            if (lowLink[state] == index[state]) {
+                int start = stack.lastIndexOf(state);
+                int[] scc = stack.subList(start, stack.size()).toIntArray();
+                stack.size(start);
+                for (int member : scc) {
+                    onStack.clear(member);
+                }
+                if (scc.length > 1 || selfLoop.get(state)) {
+                    sccs.add(scc);
+                }
+            }
+            if (!callStack.isEmpty()) {
+                int parent = callStack.getInt(callStack.size() - 1);
+                lowLink[parent] = Math.min(lowLink[parent], lowLink[state]);
+            }
+        }
+    }
+}
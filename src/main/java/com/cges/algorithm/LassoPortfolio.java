@@ -0,0 +1,105 @@
+package com.cges.algorithm;
+
+import com.cges.algorithm.RunGraphSolver.LassoSolver;
+import com.cges.graph.IndexedRunGraph;
+import com.cges.graph.RunGraph.RunState;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.microsoft.z3.Context;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the graph search and bounded model checking concurrently on the same explored run graph and takes the first
+ * answer. The loser is cancelled: both engines check a shared flag, and the Z3 context of the model checker is
+ * interrupted. The number of races won by each engine is recorded for tuning the choice of the engine.
+ */
+final class LassoPortfolio {
+    private static final Logger logger = Logger.getLogger(LassoPortfolio.class.getName());
+
+    private static final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                    .setNameFormat("lasso-portfolio-%d").setDaemon(true).build());
+    private static final Map<LassoSolver, LongAdder> wins = new EnumMap<>(LassoSolver.class);
+
+    static {
+        wins.put(LassoSolver.GRAPH_SEARCH, new LongAdder());
+        wins.put(LassoSolver.BMC, new LongAdder());
+    }
+
+    private record Result<S>(LassoSolver engine, List<RunState<S>> lasso) {
+    }
+
+    // The context may only be interrupted while it is open
+    private static final class Z3Context {
+        private final Context context = new Context();
+        private boolean closed = false;
+
+        synchronized void interrupt() {
+            if (!closed) {
+                context.interrupt();
+            }
+        }
+
+        synchronized void close() {
+            closed = true;
+            context.close();
+        }
+    }
+
+    private LassoPortfolio() {
+    }
+
+    static <S> List<RunState<S>> search(IndexedRunGraph<S> graph) {
+        AtomicBoolean cancelled = new AtomicBoolean(false);
+        Z3Context z3 = new Z3Context();
+        CompletionService<Result<S>> race = new ExecutorCompletionService<>(executor);
+        race.submit(() -> new Result<>(LassoSolver.GRAPH_SEARCH, RunGraphSccSolver.search(graph, cancelled::get)));
+        race.submit(() -> {
+            try {
+                return new Result<>(LassoSolver.BMC, RunGraphBmcSolver.search(graph, z3.context, cancelled::get));
+            } finally {
+                z3.close();
+            }
+        });
+
+        try {
+            ExecutionException failure = null;
+            for (int engines = 0; engines < 2; engines++) {
+                try {
+                    Result<S> result = race.take().get();
+                    wins.get(result.engine()).increment();
+                    logger.log(Level.FINE, "{0} won the lasso search", result.engine());
+                    return result.lasso();
+                } catch (ExecutionException e) {
+                    // The other engine may still answer
+                    logger.log(Level.WARNING, "Lasso search engine failed", e.getCause());
+                    failure = e;
+                }
+            }
+            throw new IllegalStateException("All lasso search engines failed", failure.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for the lasso search");
+        } finally {
+            cancelled.set(true);
+            z3.interrupt();
+        }
+    }
+
+    /** The number of races won by each engine so far. */
+    static Map<LassoSolver, Long> wins() {
+        Map<LassoSolver, Long> counts = new EnumMap<>(LassoSolver.class);
+        wins.forEach((engine, count) -> counts.put(engine, count.sum()));
+        return counts;
+    }
+}
@@ -0,0 +1,143 @@
+package com.cges.algorithm;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.cges.graph.HistoryGame;
+import com.cges.graph.HistoryGame.HistoryState;
+import com.cges.graph.SuspectGame;
+import com.cges.model.Agent;
+import com.cges.model.Move;
+import com.cges.model.PayoffAssignment;
+import com.cges.parity.ParityGameSolver;
+import com.cges.parity.PriorityState;
+import com.cges.parity.Solution;
+import com.cges.parity.SuspectParityGame;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Decides the punishability of moves only on demand, see {@link RunGraphSolver#solveOnDemand}. All moves are assumed
+ * to be safe until they are {@link #check(HistoryState, Move) checked}, which solves the parity game of the deviations
+ * from this single move and bans the move if some deviation cannot be punished. Thus the game over all history states
+ * is never built, only the games of the moves used by candidate lassos.
+ */
+public final class OnDemandDeviationSolver<S> implements DeviationOracle<S> {
+    private final HistoryGame<S> historyGame;
+    private final PunishmentGames<S> games;
+    private final ParityGameSolver solver;
+    // Moves are numbered as for DeviationSolver, but the history states get their offsets when first requested
+    private final Object2IntMap<HistoryState<S>> moveOffsets = new Object2IntOpenHashMap<>();
+    private int moves = 0;
+    private final BitSet bannedMoves = new BitSet();
+    private final Int2ObjectMap<LocalGame<S>> checkedMoves = new Int2ObjectOpenHashMap<>();
+    // The game punishing from a state; states shared by several games are punished as in the game solved first
+    private final Map<PriorityState<S>, LocalGame<S>> stateGames = new HashMap<>();
+
+    private record LocalGame<S>(SuspectParityGame<S> game, Solution<PriorityState<S>> solution) {
+    }
+
+    public OnDemandDeviationSolver(SuspectGame<S> suspectGame, PayoffAssignment payoff, ParityGameSolver solver) {
+        this.historyGame = suspectGame.historyGame();
+        this.solver = solver;
+        Set<Agent> losingAgents = historyGame.concurrentGame().agents().stream().filter(payoff::isLoser)
+                        .collect(Collectors.toUnmodifiableSet());
+        this.games = new PunishmentGames<>(suspectGame, losingAgents);
+        moveOffsets.defaultReturnValue(-1);
+    }
+
+    /**
+     * Checks whether all deviations from the proposed move can be punished and bans the move otherwise. The result is
+     * cached, each move is only checked once.
+     */
+    public boolean check(HistoryState<S> historyState, Move proposedMove) {
+        int move = moveId(historyState, proposedMove);
+        if (!checkedMoves.containsKey(move)) {
+            SuspectParityGame<S> game = games.localGame(historyState, proposedMove);
+            Solution<PriorityState<S>> solution = game.states().isEmpty()
+                            ? new Solution<>(Set.of(), Map.of())
+                            : solver.solve(game);
+            LocalGame<S> localGame = new LocalGame<>(game, solution);
+            checkedMoves.put(move, localGame);
+            if (game.deviationStates(historyState, proposedMove).allMatch(solution.oddWinning()::contains)) {
+                solution.oddWinning().forEach(state -> stateGames.putIfAbsent(state, localGame));
+            } else {
+                bannedMoves.set(move);
+            }
+        }
+        return !bannedMoves.get(move);
+    }
+
+    /** The number of moves checked so far. */
+    public int checkedMoves() {
+        return checkedMoves.size();
+    }
+
+    /** The number of moves banned so far. */
+    public int bannedMoves() {
+        return bannedMoves.cardinality();
+    }
+
+    private int moveId(HistoryState<S> historyState, Move proposedMove) {
+        int[] move = {moveOffset(historyState)};
+        int[] id = {-1};
+        historyGame.forEachTransition(historyState, transition -> {
+            if (transition.move().equals(proposedMove)) {
+                id[0] = move[0];
+            }
+            move[0] += 1;
+        });
+        checkArgument(id[0] >= 0, "Move %s is not proposed in %s", proposedMove, historyState);
+        return id[0];
+    }
+
+    @Override
+    public HistoryGame<S> historyGame() {
+        return historyGame;
+    }
+
+    @Override
+    public int moveOffset(HistoryState<S> historyState) {
+        int offset = moveOffsets.getInt(historyState);
+        if (offset == -1) {
+            offset = moves;
+            moveOffsets.put(historyState, offset);
+            moves += (int) historyGame.transitions(historyState).count();
+        }
+        return offset;
+    }
+
+    @Override
+    public boolean isSafe(int move) {
+        return !bannedMoves.get(move);
+    }
+
+    @Override
+    public Set<PriorityState<S>> states(HistoryState<S> state, Move proposedMove) {
+        boolean safe = check(state, proposedMove);
+        assert safe : "Move %s in %s has a losing deviation".formatted(proposedMove, state);
+        return checkedMoves.get(moveId(state, proposedMove)).game().deviationStates(state, proposedMove)
+                        .collect(Collectors.toSet());
+    }
+
+    @Override
+    public PriorityState<S> move(PriorityState<S> state) {
+        assert state.isEve();
+        PriorityState<S> successor = stateGames.get(state).solution().oddStrategy().get(state);
+        assert !successor.isEve() : "Non-alternating players in %s -> %s".formatted(state, successor);
+        return successor;
+    }
+
+    @Override
+    public Set<PriorityState<S>> successors(PriorityState<S> state) {
+        return state.isEve()
+                        ? Set.of(move(state))
+                        : stateGames.get(state).game().successors(state).collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,389 @@
+package com.cges.algorithm;
+
+import com.cges.graph.IndexedRunGraph;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Parallel SCC decomposition of an explored run graph by forward-backward search with trimming. The states are split
+ * into partitions, none of which is crossed by an SCC. For a partition, states without predecessors or successors in
+ * it are trimmed first. Then the states reachable from a pivot (forward) and reaching it (backward) are computed, their
+ * intersection is the SCC of the pivot, and the forward rest, the backward rest and the remaining states are
+ * independent partitions, which are decomposed by separate tasks.
+ *
+ * <p>Forward-backward search is efficient for splitting off large SCCs, but each step costs the size of the partition.
+ * Once the pivot takes less than half of a partition, its remaining states are split into weakly connected components
+ * instead, each of which is decomposed by Tarjan's algorithm. Small partitions are decomposed by Tarjan's algorithm as
+ * well.</p>
+ *
+ * <p>Each state stores the id of its partition, a task only writes the entries of the states of its own partition.</p>
+ *
+ * <p>The decomposition can be cancelled through a flag, which each task checks before decomposing a partition, between
+ * the searches of a split and for each root of Tarjan's algorithm. Then a {@link CancellationException} is thrown.</p>
+ */
+final class ParallelSccDecomposition {
+    private static final int SEQUENTIAL_THRESHOLD = 1 << 12;
+    private static final int REMOVED = -1;
+
+    private final IndexedRunGraph<?> graph;
+    private final BooleanSupplier cancelled;
+    // Reverse edges in the same layout as the graph
+    private final int[] reverseOffsets;
+    private final int[] sources;
+    private final int[] partition;
+    private final int[] inDegree;
+    private final int[] outDegree;
+    // Tarjan's algorithm, on a partition at a time
+    private final int[] index;
+    private final int[] lowLink;
+    private final int[] edgeCursor;
+    private final boolean[] onStack;
+    private final AtomicInteger partitionCounter = new AtomicInteger(1);
+    private final Queue<int[]> sccs = new ConcurrentLinkedQueue<>();
+
+    private record Partition(int[] states, int id, boolean sequential) {
+    }
+
+    private ParallelSccDecomposition(IndexedRunGraph<?> graph, BooleanSupplier cancelled) {
+        this.graph = graph;
+        this.cancelled = cancelled;
+        int states = graph.size();
+        this.partition = new int[states];
+        this.inDegree = new int[states];
+        this.outDegree = new int[states];
+        this.index = new int[states];
+        this.lowLink = new int[states];
+        this.edgeCursor = new int[states];
+        this.onStack = new boolean[states];
+        Arrays.fill(index, -1);
+
+        reverseOffsets = new int[states + 1];
+        for (int edge = 0; edge < graph.edgeCount(); edge++) {
+            reverseOffsets[graph.target(edge) + 1] += 1;
+        }
+        for (int state = 0; state < states; state++) {
+            reverseOffsets[state + 1] += reverseOffsets[state];
+        }
+        sources = new int[graph.edgeCount()];
+        int[] fill = reverseOffsets.clone();
+        for (int state = 0; state < states; state++) {
+            for (int edge = graph.edgeStart(state); edge < graph.edgeEnd(state); edge++) {
+                sources[fill[graph.target(edge)]++] = state;
+            }
+        }
+    }
+
+    /**
+     * Returns all SCCs of the graph which are not transient (i.e. contain at least one transition). Each SCC is sorted
+     * and the SCCs are ordered by their least state, independent of the scheduling of the tasks.
+     */
+    static List<int[]> nonTransientSccs(IndexedRunGraph<?> graph, ForkJoinPool pool, BooleanSupplier cancelled) {
+        ParallelSccDecomposition decomposition = new ParallelSccDecomposition(graph, cancelled);
+        int[] states = new int[graph.size()];
+        for (int state = 0; state < states.length; state++) {
+            states[state] = state;
+        }
+        pool.invoke(decomposition.new Decompose(new Partition(states, 0, false)));
+
+        List<int[]> sccs = new ArrayList<>(decomposition.sccs);
+        sccs.sort(Comparator.comparingInt(scc -> scc[0]));
+        return sccs;
+    }
+
+    private final class Decompose extends RecursiveAction {
+        private final Partition root;
+
+        Decompose(Partition root) {
+            this.root = root;
+        }
+
+        @Override
+        protected void compute() {
+            List<Decompose> forked = new ArrayList<>();
+            Deque<Partition> local = new ArrayDeque<>();
+            local.push(root);
+            while (!local.isEmpty()) {
+                checkCancelled();
+                Partition next = local.pop();
+                if (next.sequential() || next.states().length < SEQUENTIAL_THRESHOLD) {
+                    tarjan(next);
+                    continue;
+                }
+                for (Partition part : split(next)) {
+                    if (part.states().length >= SEQUENTIAL_THRESHOLD) {
+                        Decompose task = new Decompose(part);
+                        task.fork();
+                        forked.add(task);
+                    } else {
+                        local.push(part);
+                    }
+                }
+            }
+            forked.forEach(Decompose::join);
+        }
+    }
+
+    // Trims the partition, removes the SCC of a pivot and returns the remaining sub-partitions
+    private List<Partition> split(Partition part) {
+        int id = part.id();
+        IntArrayList remaining = trim(part);
+        if (remaining.isEmpty()) {
+            return List.of();
+        }
+
+        int pivot = remaining.getInt(0);
+        int forwardId = partitionCounter.getAndIncrement();
+        int backwardId = partitionCounter.getAndIncrement();
+        int sccId = partitionCounter.getAndIncrement();
+
+        IntArrayList queue = new IntArrayList();
+        partition[pivot] = forwardId;
+        queue.add(pivot);
+        for (int head = 0; head < queue.size(); head++) {
+            int state = queue.getInt(head);
+            for (int edge = graph.edgeStart(state); edge < graph.edgeEnd(state); edge++) {
+                int successor = graph.target(edge);
+                if (partition[successor] == id) {
+                    partition[successor] = forwardId;
+                    queue.add(successor);
+                }
+            }
+        }
+
+        // Backward search within the partition, states also reached forward form the SCC of the pivot
+        checkCancelled();
+        queue.clear();
+        partition[pivot] = sccId;
+        queue.add(pivot);
+        for (int head = 0; head < queue.size(); head++) {
+            int state = queue.getInt(head);
+            for (int edge = reverseOffsets[state]; edge < reverseOffsets[state + 1]; edge++) {
+                int predecessor = sources[edge];
+                if (partition[predecessor] == forwardId) {
+                    partition[predecessor] = sccId;
+                    queue.add(predecessor);
+                } else if (partition[predecessor] == id) {
+                    partition[predecessor] = backwardId;
+                    queue.add(predecessor);
+                }
+            }
+        }
+
+        IntArrayList scc = new IntArrayList();
+        IntArrayList forward = new IntArrayList();
+        IntArrayList backward = new IntArrayList();
+        IntArrayList rest = new IntArrayList();
+        for (int i = 0; i < remaining.size(); i++) {
+            int state = remaining.getInt(i);
+            int stateId = partition[state];
+            if (stateId == sccId) {
+                scc.add(state);
+            } else if (stateId == forwardId) {
+                forward.add(state);
+            } else if (stateId == backwardId) {
+                backward.add(state);
+            } else {
+                assert stateId == id;
+                rest.add(state);
+            }
+        }
+        if (scc.size() > 1 || hasSelfLoop(pivot)) {
+            addScc(scc.toIntArray());
+        }
+
+        List<Partition> parts = new ArrayList<>();
+        if (!forward.isEmpty()) {
+            parts.add(new Partition(forward.toIntArray(), forwardId, false));
+        }
+        if (!backward.isEmpty()) {
+            parts.add(new Partition(backward.toIntArray(), backwardId, false));
+        }
+        if (2 * rest.size() > remaining.size()) {
+            parts.addAll(weaklyConnectedComponents(rest, id));
+        } else if (!rest.isEmpty()) {
+            parts.add(new Partition(rest.toIntArray(), id, false));
+        }
+        return parts;
+    }
+
+    // Splits the given states of a partition into weakly connected components, to be decomposed sequentially
+    private List<Partition> weaklyConnectedComponents(IntArrayList states, int id) {
+        List<Partition> components = new ArrayList<>();
+        IntArrayList queue = new IntArrayList();
+        for (int i = 0; i < states.size(); i++) {
+            int root = states.getInt(i);
+            if (partition[root] != id) {
+                continue;
+            }
+            int componentId = partitionCounter.getAndIncrement();
+            queue.clear();
+            partition[root] = componentId;
+            queue.add(root);
+            for (int head = 0; head < queue.size(); head++) {
+                int state = queue.getInt(head);
+                for (int edge = graph.edgeStart(state); edge < graph.edgeEnd(state); edge++) {
+                    int successor = graph.target(edge);
+                    if (partition[successor] == id) {
+                        partition[successor] = componentId;
+                        queue.add(successor);
+                    }
+                }
+                for (int edge = reverseOffsets[state]; edge < reverseOffsets[state + 1]; edge++) {
+                    int predecessor = sources[edge];
+                    if (partition[predecessor] == id) {
+                        partition[predecessor] = componentId;
+                        queue.add(predecessor);
+                    }
+                }
+            }
+            components.add(new Partition(queue.toIntArray(), componentId, true));
+        }
+        return components;
+    }
+
+    // Iterative Tarjan over the states of the partition
+    private void tarjan(Partition part) {
+        int id = part.id();
+        IntArrayList stack = new IntArrayList();
+        IntArrayList callStack = new IntArrayList();
+        int counter = 0;
+        for (int root : part.states()) {
+            if (index[root] != -1) {
+                continue;
+            }
+            checkCancelled();
+            index[root] = counter;
+            lowLink[root] = counter;
+            counter += 1;
+            edgeCursor[root] = graph.edgeStart(root);
+            stack.add(root);
+            onStack[root] = true;
+            callStack.add(root);
+
+            while (!callStack.isEmpty()) {
+                int state = callStack.topInt();
+                if (edgeCursor[state] < graph.edgeEnd(state)) {
+                    int successor = graph.target(edgeCursor[state]++);
+                    if (partition[successor] != id) {
+                        continue;
+                    }
+                    if (index[successor] == -1) {
+                        index[successor] = counter;
+                        lowLink[successor] = counter;
+                        counter += 1;
+                        edgeCursor[successor] = graph.edgeStart(successor);
+                        stack.add(successor);
+                        onStack[successor] = true;
+                        callStack.add(successor);
+                    } else if (onStack[successor]) {
+                        lowLink[state] = Math.min(lowLink[state], index[successor]);
+                    }
+                    continue;
+                }
+
+                callStack.popInt();
+                if (lowLink[state] == index[state]) {
+                    int start = stack.lastIndexOf(state);
+                    int[] scc = stack.subList(start, stack.size()).toIntArray();
+                    stack.size(start);
+                    for (int member : scc) {
+                        onStack[member] = false;
+                    }
+                    if (scc.length > 1 || hasSelfLoop(state)) {
+                        addScc(scc);
+                    }
+                }
+                if (!callStack.isEmpty()) {
+                    int parent = callStack.topInt();
+                    lowLink[parent] = Math.min(lowLink[parent], lowLink[state]);
+                }
+            }
+        }
+    }
+
+    private void addScc(int[] scc) {
+        Arrays.sort(scc);
+        sccs.add(scc);
+    }
+
+    // Repeatedly removes states without predecessor or successor in the partition, these are transient SCCs
+    private IntArrayList trim(Partition part) {
+        int id = part.id();
+        for (int state : part.states()) {
+            int successors = 0;
+            for (int edge = graph.edgeStart(state); edge < graph.edgeEnd(state); edge++) {
+                if (partition[graph.target(edge)] == id) {
+                    successors += 1;
+                }
+            }
+            int predecessors = 0;
+            for (int edge = reverseOffsets[state]; edge < reverseOffsets[state + 1]; edge++) {
+                if (partition[sources[edge]] == id) {
+                    predecessors += 1;
+                }
+            }
+            outDegree[state] = successors;
+            inDegree[state] = predecessors;
+        }
+
+        IntArrayList trimmed = new IntArrayList();
+        for (int state : part.states()) {
+            if (outDegree[state] == 0 || inDegree[state] == 0) {
+                partition[state] = REMOVED;
+                trimmed.add(state);
+            }
+        }
+        for (int i = 0; i < trimmed.size(); i++) {
+            int state = trimmed.getInt(i);
+            for (int edge = graph.edgeStart(state); edge < graph.edgeEnd(state); edge++) {
+                int successor = graph.target(edge);
+                if (partition[successor] == id && --inDegree[successor] == 0) {
+                    partition[successor] = REMOVED;
+                    trimmed.add(successor);
+                }
+            }
+            for (int edge = reverseOffsets[state]; edge < reverseOffsets[state + 1]; edge++) {
+                int predecessor = sources[edge];
+                if (partition[predecessor] == id && --outDegree[predecessor] == 0) {
+                    partition[predecessor] = REMOVED;
+                    trimmed.add(predecessor);
+                }
+            }
+        }
+
+        IntArrayList remaining = new IntArrayList(part.states().length - trimmed.size());
+        for (int state : part.states()) {
+            if (partition[state] == id) {
+                remaining.add(state);
+            }
+        }
+        return remaining;
+    }
+
+    private void checkCancelled() {
+        if (cancelled.getAsBoolean()) {
+            throw new CancellationException();
+        }
+    }
+
+    private boolean hasSelfLoop(int state) {
+        for (int edge = graph.edgeStart(state); edge < graph.edgeEnd(state); edge++) {
+            if (graph.target(edge) == state) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,109 @@
+package com.cges.algorithm;
+
+import static owl.automaton.acceptance.ParityAcceptance.Parity;
+
+import com.cges.graph.HistoryGame.HistoryState;
+import com.cges.graph.SuspectGame;
+import com.cges.graph.SuspectGame.EveState;
+import com.cges.model.Agent;
+import com.cges.model.ConcurrentGame;
+import com.cges.model.LabelProjection;
+import com.cges.model.Move;
+import com.cges.parity.SuspectParityGame;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import owl.automaton.Automaton;
+import owl.automaton.ParityUtil;
+import owl.automaton.acceptance.ParityAcceptance;
+import owl.ltl.Conjunction;
+import owl.ltl.Disjunction;
+import owl.ltl.GOperator;
+import owl.ltl.LabelledFormula;
+import owl.ltl.Literal;
+import owl.ltl.rewriter.LiteralMapper;
+import owl.ltl.rewriter.SimplifierRepository;
+import owl.translations.LtlTranslationRepository;
+import owl.translations.LtlTranslationRepository.Option;
+
+/**
+ * Builds the parity games in which Eve has to keep a set of losing agents losing after a deviation. The goal of Eve is
+ * that no agent which remains a suspect forever achieves its goal, where the suspects are given to the automaton as
+ * one additional proposition per losing agent.
+ */
+final class PunishmentGames<S> {
+    private static final Logger logger = Logger.getLogger(PunishmentGames.class.getName());
+    private static final Function<LabelledFormula, Automaton<?, ? extends ParityAcceptance>> translation =
+                    LtlTranslationRepository.LtlToDpaTranslation.SEJK16_EKRS17
+                                    .translation(EnumSet.of(Option.SIMPLIFY_AUTOMATON));
+
+    private final SuspectGame<S> suspectGame;
+    private final Set<Agent> losingAgents;
+    private final Map<Agent, Literal> agentLiterals;
+    private final Object2IntMap<Agent> agentPropositions;
+    private final List<String> atomicPropositions;
+
+    PunishmentGames(SuspectGame<S> suspectGame, Set<Agent> losingAgents) {
+        this.suspectGame = suspectGame;
+        this.losingAgents = losingAgents;
+
+        ConcurrentGame<S> concurrentGame = suspectGame.historyGame().concurrentGame();
+        atomicPropositions = Stream
+                        .concat(concurrentGame.atomicPropositions().stream(), losingAgents.stream().map(Agent::name))
+                        .toList();
+        agentLiterals = losingAgents.stream().collect(
+                        Collectors.toMap(Function.identity(), a -> Literal.of(atomicPropositions.indexOf(a.name()))));
+        assert Set.copyOf(atomicPropositions).size() == atomicPropositions.size();
+        agentPropositions = new Object2IntOpenHashMap<>();
+        agentPropositions.defaultReturnValue(-1);
+        agentLiterals.forEach((agent, literal) -> agentPropositions.put(agent, literal.getAtom()));
+    }
+
+    Set<Agent> losingAgents() {
+        return losingAgents;
+    }
+
+    /** The game of the deviations from all history states reachable from the given one without deviation. */
+    SuspectParityGame<S> game(HistoryState<S> historyState) {
+        var eveState = new EveState<>(historyState, losingAgents);
+        var goal = goal(historyState);
+        var shifted = LiteralMapper.shiftLiterals(goal);
+        var parityGame = SuspectParityGame.create(suspectGame, eveState, automaton(shifted.formula),
+                        LabelProjection.of(shifted), agentPropositions);
+        if (parityGame.states().isEmpty()) {
+            logger.log(Level.INFO, "State {0} with goal {1} has no possible deviations", new Object[]{eveState, goal});
+        }
+        return parityGame;
+    }
+
+    /** The game of the deviations from the proposed move in the given history state only. */
+    SuspectParityGame<S> localGame(HistoryState<S> historyState, Move proposedMove) {
+        var shifted = LiteralMapper.shiftLiterals(goal(historyState));
+        return SuspectParityGame.createLocal(suspectGame, new EveState<>(historyState, losingAgents), proposedMove,
+                        automaton(shifted.formula), LabelProjection.of(shifted), agentPropositions);
+    }
+
+    // The goal of Eve from the given history state on, which carries the remaining goals of the agents
+    private LabelledFormula goal(HistoryState<S> historyState) {
+        return SimplifierRepository.SYNTACTIC_FAIRNESS.apply(LabelledFormula.of(Disjunction
+                        .of(losingAgents.stream().map(
+                                        a -> Conjunction.of(GOperator.of(agentLiterals.get(a)), historyState.goal(a))))
+                        .not(), atomicPropositions));
+    }
+
+    private static Automaton<Object, ParityAcceptance> automaton(LabelledFormula shiftedGoal) {
+        @SuppressWarnings("unchecked")
+        var automaton = (Automaton<Object, ParityAcceptance>) ParityUtil.convert(translation.apply(shiftedGoal),
+                        Parity.MIN_EVEN);
+        assert !automaton.states().isEmpty();
+        return automaton;
+    }
+}
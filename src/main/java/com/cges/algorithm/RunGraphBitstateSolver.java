@@ -0,0 +1,268 @@
+package com.cges.algorithm;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.cges.graph.RunAcceptance;
+import com.cges.graph.RunGraph;
+import com.cges.graph.RunGraph.RunState;
+import com.cges.graph.RunGraph.RunTransition;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * Probabilistic lasso search in the style of Holzmann's bitstate hashing. The run graph is traversed by a nested
+ * depth-first search over its objects, without numbering states. Visited states are only recorded as a few bits of a
+ * fixed-size bit array, indexed by hashes of a 64-bit fingerprint of the state, so the memory for the visited sets is
+ * fixed. Hash collisions make the search skip states, hence it may miss lassos, but every lasso it reports consists of
+ * states of the depth-first search stacks and is re-validated against the run graph.
+ *
+ * <p>Acceptance is handled as generalized Buchi condition by a counter over the Buchi colours, which advances when the
+ * next colour is seen and wraps on an accepting edge. For an accepting edge, the inner search is started after the
+ * outer search finished the target of the edge and looks for the source of the edge. Parity acceptance is not
+ * supported, since the nested search relies on acceptance being monotone.</p>
+ */
+public final class RunGraphBitstateSolver<S> {
+    private static final Logger logger = Logger.getLogger(RunGraphBitstateSolver.class.getName());
+    private static final int HASHES = 2;
+
+    private final RunGraph<S> graph;
+    private final int[] buchiColours;
+    private final int bits;
+    private final BitstateSet outerVisited;
+    // Only allocated for the first inner search, i.e. once an accepting edge is found
+    @Nullable
+    private BitstateSet innerVisited = null;
+
+    private static final class BitstateSet {
+        private final long[] words;
+        private final long mask;
+        private long stored = 0;
+
+        BitstateSet(int bits) {
+            this.words = new long[1 << (bits - 6)];
+            this.mask = (1L << bits) - 1;
+        }
+
+        // Sets the bits of the fingerprint, returns false if all of them were set already
+        boolean add(long fingerprint) {
+            long first = mix(fingerprint);
+            long second = mix(fingerprint ^ 0x5851F42D4C957F2DL) | 1L;
+            boolean added = false;
+            for (int i = 0; i < HASHES; i++) {
+                long bit = (first + i * second) & mask;
+                int word = (int) (bit >>> 6);
+                long wordMask = 1L << bit;
+                if ((words[word] & wordMask) == 0) {
+                    words[word] |= wordMask;
+                    added = true;
+                }
+            }
+            if (added) {
+                stored += 1;
+            }
+            return added;
+        }
+
+        double fill() {
+            long set = 0;
+            for (long word : words) {
+                set += Long.bitCount(word);
+            }
+            return (double) set / (mask + 1);
+        }
+    }
+
+    // A state of the search, i.e. a run graph state together with the counter over the Buchi colours
+    private record Node<S>(RunState<S> state, int counter) {
+        long fingerprint() {
+            long history = mix(state.historyState().hashCode());
+            long automaton = mix(state.automatonState().hashCode() ^ 0x9E3779B97F4A7C15L);
+            return mix(history * 31 + automaton) ^ counter;
+        }
+    }
+
+    private final class Frame {
+        final Node<S> node;
+        final Iterator<RunTransition<S>> transitions;
+        // Target of the accepting edge to the child currently explored, its inner search is started once the child is
+        // finished
+        @Nullable
+        Node<S> pendingInner = null;
+
+        Frame(Node<S> node) {
+            this.node = node;
+            this.transitions = graph.transitions(node.state()).iterator();
+        }
+    }
+
+    private RunGraphBitstateSolver(RunGraph<S> graph, int bits) {
+        RunAcceptance acceptance = graph.acceptance();
+        checkArgument(acceptance.isBuchi(), "Bitstate search requires Buchi acceptance");
+        checkArgument(RunGraphSolver.MIN_BITSTATE_BITS <= bits && bits <= RunGraphSolver.MAX_BITSTATE_BITS,
+                        "Bit array size must be between 2^%s and 2^%s", RunGraphSolver.MIN_BITSTATE_BITS,
+                        RunGraphSolver.MAX_BITSTATE_BITS);
+        this.graph = graph;
+        this.bits = bits;
+        this.buchiColours = new int[Integer.bitCount(acceptance.buchiMask())];
+        int colour = 0;
+        for (int i = 0; i < buchiColours.length; i++) {
+            while ((acceptance.buchiMask() & (1 << colour)) == 0) {
+                colour += 1;
+            }
+            buchiColours[i] = colour;
+            colour += 1;
+        }
+        this.outerVisited = new BitstateSet(bits);
+    }
+
+    /**
+     * Searches for a lasso, using two bit arrays of {@code 2^bits} bits for the visited sets. The array of the inner
+     * search is only allocated once an accepting edge is found.
+     */
+    public static <S> List<RunState<S>> search(RunGraph<S> graph, int bits) {
+        var solver = new RunGraphBitstateSolver<>(graph, bits);
+        List<RunState<S>> lasso = List.of();
+        for (RunState<S> initialState : graph.initialStates()) {
+            if (solver.outerVisited.add(new Node<>(initialState, 0).fingerprint())) {
+                lasso = solver.outerSearch(initialState);
+                if (!lasso.isEmpty()) {
+                    solver.validate(lasso);
+                    break;
+                }
+            }
+        }
+        BitstateSet innerVisited = solver.innerVisited;
+        logger.log(Level.FINE, "Bitstate search stored {0} outer and {1} inner states, {2} of the bits are set",
+                        new Object[]{solver.outerVisited.stored, innerVisited == null ? 0 : innerVisited.stored,
+                                        "%.3f".formatted(Math.max(solver.outerVisited.fill(),
+                                                        innerVisited == null ? 0.0 : innerVisited.fill()))});
+        return lasso;
+    }
+
+    private static long mix(long value) {
+        // Finalizer of SplitMix64
+        long z = value;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // The successor node of the given transition, or null if the transition is accepting, then the counter is reset
+    @Nullable
+    private Node<S> advance(Node<S> node, RunTransition<S> transition) {
+        int next = node.counter();
+        while (next < buchiColours.length && (transition.colours() & (1 << buchiColours[next])) != 0) {
+            next += 1;
+        }
+        return next == buchiColours.length ? null : new Node<>(transition.successor(), next);
+    }
+
+    private List<RunState<S>> outerSearch(RunState<S> root) {
+        Deque<Frame> stack = new ArrayDeque<>();
+        stack.push(new Frame(new Node<>(root, 0)));
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peek();
+            if (frame.pendingInner != null) {
+                Node<S> child = frame.pendingInner;
+                frame.pendingInner = null;
+                List<RunState<S>> loop = innerSearch(child, frame.node);
+                if (!loop.isEmpty()) {
+                    return lasso(stack, loop);
+                }
+            }
+            if (!frame.transitions.hasNext()) {
+                stack.pop();
+                continue;
+            }
+
+            RunTransition<S> transition = frame.transitions.next();
+            Node<S> advanced = advance(frame.node, transition);
+            boolean accepting = advanced == null;
+            Node<S> child = accepting ? new Node<>(transition.successor(), 0) : advanced;
+            if (outerVisited.add(child.fingerprint())) {
+                if (accepting) {
+                    frame.pendingInner = child;
+                }
+                stack.push(new Frame(child));
+            } else if (accepting) {
+                List<RunState<S>> loop = innerSearch(child, frame.node);
+                if (!loop.isEmpty()) {
+                    return lasso(stack, loop);
+                }
+            }
+        }
+        return List.of();
+    }
+
+    // Searches for the seed from the given node, returns the path from the node to the seed (inclusive)
+    private List<RunState<S>> innerSearch(Node<S> start, Node<S> seed) {
+        if (start.equals(seed)) {
+            return List.of(start.state());
+        }
+        if (innerVisited == null) {
+            innerVisited = new BitstateSet(bits);
+        }
+        if (!innerVisited.add(start.fingerprint())) {
+            return List.of();
+        }
+        Deque<Frame> stack = new ArrayDeque<>();
+        stack.push(new Frame(start));
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peek();
+            if (!frame.transitions.hasNext()) {
+                stack.pop();
+                continue;
+            }
+            RunTransition<S> transition = frame.transitions.next();
+            Node<S> advanced = advance(frame.node, transition);
+            Node<S> successor = advanced == null ? new Node<>(transition.successor(), 0) : advanced;
+            if (successor.equals(seed)) {
+                List<RunState<S>> path = new ArrayList<>(stack.size() + 1);
+                stack.descendingIterator().forEachRemaining(element -> path.add(element.node.state()));
+                path.add(successor.state());
+                return path;
+            }
+            if (innerVisited.add(successor.fingerprint())) {
+                stack.push(new Frame(successor));
+            }
+        }
+        return List.of();
+    }
+
+    // The outer stack leads to the seed, from which the loop returns to it
+    private List<RunState<S>> lasso(Deque<Frame> outerStack, List<RunState<S>> loop) {
+        List<RunState<S>> lasso = new ArrayList<>(outerStack.size() + loop.size());
+        outerStack.descendingIterator().forEachRemaining(frame -> lasso.add(frame.node.state()));
+        lasso.addAll(loop);
+        return lasso;
+    }
+
+    // The states of the lasso are real, but hash collisions must not lead to reporting an invalid lasso
+    private void validate(List<RunState<S>> lasso) {
+        checkState(graph.initialStates().contains(lasso.get(0)));
+        int loopStart = lasso.indexOf(lasso.get(lasso.size() - 1));
+        checkState(loopStart < lasso.size() - 1, "Lasso without loop");
+        int colours = 0;
+        for (int i = 0; i + 1 < lasso.size(); i++) {
+            RunState<S> successor = lasso.get(i + 1);
+            int edgeColours = -1;
+            for (RunTransition<S> transition : graph.transitions(lasso.get(i))) {
+                if (transition.successor().equals(successor)) {
+                    edgeColours = Math.max(edgeColours, 0) | transition.colours();
+                }
+            }
+            checkState(edgeColours != -1, "No transition from %s to %s", lasso.get(i), successor);
+            if (i >= loopStart) {
+                colours |= edgeColours;
+            }
+        }
+        checkState(graph.acceptance().isAccepting(colours), "Lasso is not accepting");
+    }
+}
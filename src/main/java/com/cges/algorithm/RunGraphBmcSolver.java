@@ -3,10 +3,10 @@ package com.cges.algorithm;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
+import com.cges.graph.IndexedRunGraph;
+import com.cges.graph.RunAcceptance;
 import com.cges.graph.RunGraph;
 import com.cges.graph.RunGraph.RunState;
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.SetMultimap;
 import com.microsoft.z3.BitVecExpr;
 import com.microsoft.z3.BitVecNum;
 import com.microsoft.z3.BitVecSort;
@@ -18,18 +18,24 @@ import com.microsoft.z3.Model;
 import com.microsoft.z3.Solver;
 import com.microsoft.z3.Status;
 import com.microsoft.z3.Z3Exception;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.IntStream;
@@ -37,66 +43,84 @@ import java.util.stream.IntStream;
 public final class RunGraphBmcSolver<S> {
     private static final Logger logger = Logger.getLogger(RunGraphBmcSolver.class.getName());
 
-    private final RunGraph<S> graph;
-    private final Set<RunState<S>> explored;
-    private final List<RunState<S>> stateNumbering = new ArrayList<>();
+    private final IndexedRunGraph<S> graph;
+    private final BitSet explored = new BitSet();
+    private final BitSet discovered = new BitSet();
+    private final IntArrayList stateNumbering = new IntArrayList();
 
     private final Context ctx;
-    private final Queue<Distance<S>> queue;
-    private int exploredDepth = 0;
-    private final SetMultimap<RunState<S>, RunState<S>> acceptingTransitions = HashMultimap.create();
-
-    private record Distance<S>(RunState<S> state, int distance) {
-    }
-
-    private RunGraphBmcSolver(RunGraph<S> graph, Context ctx) {
+    private final BooleanSupplier cancelled;
+    // Discovered but not yet explored states, all of which have distance exploredDepth + 1 from the initial states
+    private IntArrayList frontier = new IntArrayList();
+    private int exploredDepth = -1;
+    private final RunAcceptance acceptance;
+    // Transitions of each colour, indexed by colour and source state
+    private final List<Int2ObjectMap<IntSet>> colourTransitions;
+
+    private RunGraphBmcSolver(IndexedRunGraph<S> graph, Context ctx, BooleanSupplier cancelled) {
         this.graph = graph;
         this.ctx = ctx;
+        this.cancelled = cancelled;
+        this.acceptance = graph.acceptance();
+        this.colourTransitions = new ArrayList<>(acceptance.colours());
+        for (int colour = 0; colour < acceptance.colours(); colour++) {
+            colourTransitions.add(new Int2ObjectOpenHashMap<>());
+        }
 
-        explored = new HashSet<>();
-        queue = new PriorityQueue<>(Comparator.comparingInt(Distance::distance));
-        for (RunState<S> initial : graph.initialStates()) {
-            queue.add(new Distance<>(initial, 0));
+        for (int initial : graph.initialStates()) {
+            if (!discovered.get(initial)) {
+                discovered.set(initial);
+                frontier.add(initial);
+            }
         }
     }
 
-    public static <S> List<RunState<S>> search(RunGraph<S> graph) {
+    public static <S> List<RunState<S>> search(IndexedRunGraph<S> graph) {
         try (Context context = new Context()) {
-            return new RunGraphBmcSolver<>(graph, context).check();
+            return search(graph, context, () -> false);
         }
     }
 
-    private void exploreToDepth(int depth) {
-        if (exploredDepth >= depth) {
-            return;
-        }
-        while (!queue.isEmpty()) {
-            Distance<S> distance = queue.poll();
-            if (distance.distance() > depth) {
-                queue.add(distance);
-                return;
-            }
+    /**
+     * Searches with the given context, which is owned by the caller. The search can be cancelled from another thread
+     * by raising the flag and interrupting the context, it then throws a {@link CancellationException} or a
+     * {@link Z3Exception}.
+     */
+    static <S> List<RunState<S>> search(IndexedRunGraph<S> graph, Context context, BooleanSupplier cancelled) {
+        return new RunGraphBmcSolver<>(graph, context, cancelled).check();
+    }
 
-            if (!explored.add(distance.state())) {
-                continue;
-            }
-            stateNumbering.add(distance.state());
-            RunState<S> state = distance.state();
-            for (RunGraph.RunTransition<S> transition : graph.transitions(state)) {
-                if (transition.accepting()) {
-                    acceptingTransitions.put(state, transition.successor());
-                }
-                if (!explored.contains(transition.successor())) {
-                    queue.add(new Distance<>(transition.successor(), distance.distance() + 1));
-                }
+    private void exploreToDepth(int depth) {
+        while (exploredDepth < depth && !frontier.isEmpty()) {
+            IntArrayList nextFrontier = new IntArrayList();
+            for (int i = 0; i < frontier.size(); i++) {
+                int state = frontier.getInt(i);
+                explored.set(state);
+                stateNumbering.add(state);
+                graph.forEachSuccessor(state, (successor, colours) -> {
+                    for (int colour = 0; colour < colourTransitions.size(); colour++) {
+                        if ((colours & (1 << colour)) != 0) {
+                            colourTransitions.get(colour).computeIfAbsent(state, k -> new IntOpenHashSet())
+                                            .add(successor);
+                        }
+                    }
+                    if (!discovered.get(successor)) {
+                        discovered.set(successor);
+                        nextFrontier.add(successor);
+                    }
+                });
             }
+            frontier = nextFrontier;
+            exploredDepth += 1;
         }
-        exploredDepth = depth;
     }
 
     private List<RunState<S>> check() {
         int depth = 1;
-        while (!queue.isEmpty() || depth <= explored.size()) {
+        while (!frontier.isEmpty() || depth <= stateNumbering.size()) {
+            if (cancelled.getAsBoolean()) {
+                throw new CancellationException();
+            }
             var lasso = checkToDepth(depth);
             if (!lasso.isEmpty()) {
                 return lasso;
@@ -106,14 +130,24 @@ public final class RunGraphBmcSolver<S> {
         return List.of();
     }
 
+    private BoolExpr successorExpression(int state, Int2ObjectMap<BoolExpr> successorExpressions) {
+        List<BoolExpr> successors = new ArrayList<>();
+        graph.forEachSuccessor(state, (successor, colours) -> {
+            if (explored.get(successor)) {
+                successors.add(successorExpressions.get(successor));
+            }
+        });
+        return ctx.mkOr(successors.toArray(BoolExpr[]::new));
+    }
+
     @SuppressWarnings({"unchecked", "NumericCastThatLosesPrecision"})
     private List<RunState<S>> checkToDepth(int depth) {
         logger.log(Level.FINE, "Building model for depth {0}", depth);
 
         exploreToDepth(depth);
-        assert !explored.isEmpty();
+        assert !stateNumbering.isEmpty();
 
-        int bits = (int) Math.ceil(StrictMath.log(explored.size()) / StrictMath.log(2));
+        int bits = (int) Math.ceil(StrictMath.log(stateNumbering.size()) / StrictMath.log(2));
         List<BoolExpr[]> variablesByDepth = new ArrayList<>(depth);
         while (variablesByDepth.size() <= depth) {
             int step = variablesByDepth.size();
@@ -124,39 +158,36 @@ public final class RunGraphBmcSolver<S> {
             variablesByDepth.add(variables);
         }
 
-        Map<RunState<S>, BoolExpr>[] stepStateExpressions = new Map[depth + 1];
-        Arrays.setAll(stepStateExpressions, i -> new HashMap<>());
-
-        ListIterator<RunState<S>> iterator = stateNumbering.listIterator();
-        assert stateNumbering.size() == explored.size();
-        assert Set.copyOf(stateNumbering).equals(explored);
-
-        while (iterator.hasNext()) {
-            int index = iterator.nextIndex();
-            RunState<S> state = iterator.next();
+        Int2ObjectMap<BoolExpr>[] stepStateExpressions = new Int2ObjectMap[depth + 1];
+        Arrays.setAll(stepStateExpressions, i -> new Int2ObjectOpenHashMap<>());
+        assert stateNumbering.size() == explored.cardinality();
 
+        for (int index = 0; index < stateNumbering.size(); index++) {
+            int state = stateNumbering.getInt(index);
+            int stateIndex = index;
             for (int step = 0; step <= depth; step++) {
                 BoolExpr[] stepVariables = variablesByDepth.get(step);
                 BoolExpr[] bitExpression = new BoolExpr[bits];
-                Arrays.setAll(bitExpression,
-                                bit -> (index & (1 << bit)) == 0 ? ctx.mkNot(stepVariables[bit]) : stepVariables[bit]);
+                Arrays.setAll(bitExpression, bit -> (stateIndex & (1 << bit)) == 0
+                                ? ctx.mkNot(stepVariables[bit])
+                                : stepVariables[bit]);
                 stepStateExpressions[step].put(state, ctx.mkAnd(bitExpression));
             }
         }
 
         Solver solver = ctx.mkSolver("QF_FD");
-        solver.add(ctx.mkOr(graph.initialStates().stream().map(stepStateExpressions[0]::get).toArray(BoolExpr[]::new))
-                        .simplify());
+        solver.add(ctx.mkOr(Arrays.stream(graph.initialStates()).mapToObj(stepStateExpressions[0]::get)
+                        .toArray(BoolExpr[]::new)).simplify());
 
         Expr<BoolSort>[] transitionSystem = new Expr[depth];
-        Arrays.setAll(transitionSystem, step -> ctx.mkAnd(explored.stream().map(state -> ctx.mkImplies(
-                        stepStateExpressions[step].get(state),
-                        ctx.mkOr(graph.successors(state).stream().filter(explored::contains)
-                                        .map(stepStateExpressions[step + 1]::get).toArray(BoolExpr[]::new))))
+        Arrays.setAll(transitionSystem, step -> ctx.mkAnd(stateNumbering.intStream()
+                        .mapToObj(state -> ctx.mkImplies(stepStateExpressions[step].get(state),
+                                        successorExpression(state, stepStateExpressions[step + 1])))
                         .toArray(BoolExpr[]::new)));
         solver.add(ctx.mkAnd(transitionSystem).simplify());
 
-        Expr<BoolSort>[] acceptingLoopAtStep = new Expr[depth + 1];
+        // A loop closing at the last step would be empty, which is never accepting
+        Expr<BoolSort>[] acceptingLoopAtStep = new Expr[depth];
 
         // Can we use SCCs here?
         Arrays.setAll(acceptingLoopAtStep, step -> {
@@ -164,16 +195,41 @@ public final class RunGraphBmcSolver<S> {
             Arrays.setAll(loopExpr, bit -> ctx.mkEq(variablesByDepth.get(step)[bit], variablesByDepth.get(depth)[bit]));
             Expr<BoolSort> loop = ctx.mkAnd(loopExpr).simplify();
 
-            Expr<BoolSort> acceptingTransition = ctx.mkOr(acceptingTransitions.asMap().entrySet().stream()
+            // Whether the loop takes a transition of the given colour
+            Expr<BoolSort>[] occurs = new Expr[colourTransitions.size()];
+            Arrays.setAll(occurs, colour -> ctx.mkOr(colourTransitions.get(colour).int2ObjectEntrySet().stream()
                             .map(transition -> ctx.mkOr(IntStream.range(step, depth).mapToObj(i -> ctx.mkAnd(
-                                            stepStateExpressions[i].get(transition.getKey()),
-                                            ctx.mkOr(transition.getValue().stream().filter(explored::contains)
-                                                            .map(stepStateExpressions[i + 1]::get)
+                                            stepStateExpressions[i].get(transition.getIntKey()),
+                                            ctx.mkOr(transition.getValue().intStream().filter(explored::get)
+                                                            .mapToObj(stepStateExpressions[i + 1]::get)
                                                             .toArray(BoolExpr[]::new))))
                                             .toArray(BoolExpr[]::new)))
-                            .toArray(BoolExpr[]::new));
-
-            return ctx.mkAnd(loop, acceptingTransition);
+                            .toArray(BoolExpr[]::new)));
+
+            // The loop has to take a transition of each Buchi colour and the least priority it takes of each parity
+            // automaton has to be even
+            List<Expr<BoolSort>> conditions = new ArrayList<>();
+            conditions.add(loop);
+            int buchiMask = acceptance.buchiMask();
+            for (int colour = 0; colour < occurs.length; colour++) {
+                if ((buchiMask & (1 << colour)) != 0) {
+                    conditions.add(occurs[colour]);
+                }
+            }
+            for (int component = 0; component < acceptance.parityComponents(); component++) {
+                int offset = acceptance.parityOffset(component);
+                List<Expr<BoolSort>> evenLeastPriority = new ArrayList<>();
+                for (int priority = 0; priority < acceptance.parityColours(component); priority += 2) {
+                    Expr<BoolSort>[] least = new Expr[priority + 1];
+                    least[0] = occurs[offset + priority];
+                    for (int smaller = 0; smaller < priority; smaller++) {
+                        least[smaller + 1] = ctx.mkNot(occurs[offset + smaller]);
+                    }
+                    evenLeastPriority.add(ctx.mkAnd(least));
+                }
+                conditions.add(ctx.mkOr(evenLeastPriority.toArray(Expr[]::new)));
+            }
+            return ctx.mkAnd(conditions.toArray(Expr[]::new));
         });
         Expr<BoolSort> acceptingLassoExpression = ctx.mkOr(acceptingLoopAtStep).simplify();
 
@@ -194,6 +250,11 @@ public final class RunGraphBmcSolver<S> {
                 valuation[step][bit] = z3valuation.isTrue();
             }
         }
+        // With parity acceptance, the lasso has to loop exactly at the chosen step, since closing the loop at an earlier
+        // visit of the state may add a smaller odd priority. The part between the two visits is cut out.
+        int loopStep = IntStream.range(0, depth)
+                        .filter(step -> model.eval(acceptingLoopAtStep[step], true).isTrue())
+                        .findFirst().orElseThrow();
         List<RunState<S>> lasso = new ArrayList<>(depth + 1);
         for (int step = 0; step <= depth; step++) {
             int stateIndex = 0;
@@ -204,9 +265,11 @@ public final class RunGraphBmcSolver<S> {
                 }
             }
             assert 0 <= stateIndex && stateIndex < stateNumbering.size();
-            lasso.add(checkNotNull(stateNumbering.get(stateIndex)));
+            lasso.add(checkNotNull(graph.state(stateNumbering.getInt(stateIndex))));
         }
-        checkState(lasso.subList(0, depth).contains(lasso.get(depth)), lasso);
+        int firstVisit = lasso.indexOf(lasso.get(loopStep));
+        checkState(lasso.get(depth).equals(lasso.get(loopStep)), lasso);
+        lasso.subList(firstVisit, loopStep).clear();
         return lasso;
     }
 
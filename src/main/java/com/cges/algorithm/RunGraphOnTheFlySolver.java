@@ -0,0 +1,206 @@
+package com.cges.algorithm;
+
+import com.cges.graph.RunAcceptance;
+import com.cges.graph.RunGraph;
+import com.cges.graph.RunGraph.RunState;
+import com.cges.graph.RunGraph.SuccessorConsumer;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Emptiness check in the style of Couvreur's algorithm: a Tarjan-like depth-first search which explores the run graph
+ * lazily, tracks for each root of a partial SCC the acceptance sets of the edges merged into it and stops as soon as
+ * all sets are covered. The returned lasso is not necessarily the shortest one.
+ *
+ * <p>With parity automata, the colours merged into a partial SCC do not decide acceptance, since further edges may add
+ * a smaller odd priority. Then each SCC is checked by {@link SccRefinement} once it is complete, which still stops the
+ * search at the first accepting SCC.</p>
+ */
+public final class RunGraphOnTheFlySolver<S> {
+    private static final Logger logger = Logger.getLogger(RunGraphOnTheFlySolver.class.getName());
+
+    private final RunGraph<S> graph;
+    private final RunAcceptance acceptance;
+    private final int acceptanceMask;
+    // Successors of each expanded state, stored as consecutive pairs of id and colours
+    private final List<int[]> edges = new ArrayList<>();
+    private int[] index = new int[64];
+    private final BitSet onStack = new BitSet();
+    private final IntArrayList stack = new IntArrayList();
+    private final IntArrayList callStack = new IntArrayList();
+    private final IntArrayList nextEdge = new IntArrayList();
+    // Roots of the partial SCCs on the stack, with the colours of the edges within and entering the SCC
+    private final IntArrayList roots = new IntArrayList();
+    private final IntArrayList rootAcceptance = new IntArrayList();
+    private final IntArrayList rootEntryAcceptance = new IntArrayList();
+    private int counter = 0;
+
+    private RunGraphOnTheFlySolver(RunGraph<S> graph) {
+        this.graph = graph;
+        this.acceptance = graph.acceptance();
+        this.acceptanceMask = acceptance.buchiMask();
+        Arrays.fill(index, -1);
+    }
+
+    public static <S> List<RunState<S>> search(RunGraph<S> graph) {
+        var solver = new RunGraphOnTheFlySolver<>(graph);
+        for (int initialState : graph.initialStateIds()) {
+            solver.ensureCapacity(initialState);
+            if (solver.index[initialState] == -1) {
+                List<RunState<S>> lasso = solver.run(initialState);
+                if (!lasso.isEmpty()) {
+                    logger.log(Level.FINE, "Found lasso after exploring {0} states", solver.counter);
+                    return lasso;
+                }
+            }
+        }
+        logger.log(Level.FINE, "No lasso in {0} states", solver.counter);
+        return List.of();
+    }
+
+    private void ensureCapacity(int state) {
+        if (state >= index.length) {
+            int oldLength = index.length;
+            int newLength = Math.max(state + 1, oldLength * 2);
+            index = Arrays.copyOf(index, newLength);
+            Arrays.fill(index, oldLength, newLength, -1);
+        }
+    }
+
+    private int[] edges(int state) {
+        while (edges.size() <= state) {
+            edges.add(null);
+        }
+        int[] stateEdges = edges.get(state);
+        if (stateEdges == null) {
+            IntArrayList successors = new IntArrayList();
+            graph.forEachSuccessor(state, (successor, colours) -> {
+                successors.add(successor);
+                successors.add(colours);
+            });
+            stateEdges = successors.toIntArray();
+            edges.set(state, stateEdges);
+        }
+        return stateEdges;
+    }
+
+    private void forEachEdge(int state, SuccessorConsumer action) {
+        int[] stateEdges = edges(state);
+        for (int edge = 0; edge < stateEdges.length; edge += 2) {
+            action.accept(stateEdges[edge], stateEdges[edge + 1]);
+        }
+    }
+
+    private void push(int state, int entryColours) {
+        ensureCapacity(state);
+        index[state] = counter;
+        counter += 1;
+        stack.add(state);
+        onStack.set(state);
+        callStack.add(state);
+        nextEdge.add(0);
+        roots.add(state);
+        rootAcceptance.add(0);
+        rootEntryAcceptance.add(entryColours);
+    }
+
+    private List<RunState<S>> run(int initialState) {
+        push(initialState, 0);
+        while (!callStack.isEmpty()) {
+            int frame = callStack.size() - 1;
+            int state = callStack.getInt(frame);
+            int[] stateEdges = edges(state);
+            int edge = nextEdge.getInt(frame);
+            if (edge < stateEdges.length) {
+                nextEdge.set(frame, edge + 2);
+                int successor = stateEdges[edge];
+                int colours = stateEdges[edge + 1];
+                ensureCapacity(successor);
+                if (index[successor] == -1) {
+                    push(successor, colours);
+                } else if (onStack.get(successor)) {
+                    // Merge all partial SCCs above the successor, including the edges connecting them. The merged
+                    // SCC contains a cycle, which is accepting once all sets are covered.
+                    int merged = colours;
+                    int top = roots.size() - 1;
+                    while (index[roots.getInt(top)] > index[successor]) {
+                        merged |= rootAcceptance.getInt(top) | rootEntryAcceptance.getInt(top);
+                        roots.removeInt(top);
+                        rootAcceptance.removeInt(top);
+                        rootEntryAcceptance.removeInt(top);
+                        top -= 1;
+                    }
+                    merged |= rootAcceptance.getInt(top);
+                    rootAcceptance.set(top, merged);
+                    if (acceptance.isBuchi() && (merged & acceptanceMask) == acceptanceMask) {
+                        return lasso(roots.getInt(top));
+                    }
+                }
+                continue;
+            }
+
+            callStack.removeInt(frame);
+            nextEdge.removeInt(frame);
+            int top = roots.size() - 1;
+            if (roots.getInt(top) == state) {
+                roots.removeInt(top);
+                rootAcceptance.removeInt(top);
+                rootEntryAcceptance.removeInt(top);
+                int start = stack.lastIndexOf(state);
+                if (!acceptance.isBuchi()) {
+                    var accepting = SccRefinement.find(stack.subList(start, stack.size()).toIntArray(),
+                                    this::forEachEdge, acceptance);
+                    if (accepting != null) {
+                        return lasso(state, accepting);
+                    }
+                }
+                for (int i = start; i < stack.size(); i++) {
+                    onStack.clear(stack.getInt(i));
+                }
+                stack.size(start);
+            }
+        }
+        return List.of();
+    }
+
+    // Builds a lasso through a closed walk covering all acceptance sets within the (partial) SCC rooted in the given
+    // state. The call stack below the root does not touch the SCC and forms the prefix.
+    private List<RunState<S>> lasso(int root) {
+        BitSet scc = new BitSet();
+        for (int i = stack.lastIndexOf(root); i < stack.size(); i++) {
+            scc.set(stack.getInt(i));
+        }
+        IntArrayList walk = AcceptingWalk.closedWalk(root, scc::get, acceptanceMask, this::forEachEdge);
+        IntArrayList prefix = new IntArrayList(callStack.subList(0, callStack.indexOf(root)));
+        return lasso(prefix, walk);
+    }
+
+    // Builds a lasso through the accepting part of the completed SCC rooted in the given state, whose frame has
+    // already been removed from the call stack
+    private List<RunState<S>> lasso(int root, SccRefinement.AcceptingScc accepting) {
+        BitSet scc = new BitSet();
+        for (int i = stack.lastIndexOf(root); i < stack.size(); i++) {
+            scc.set(stack.getInt(i));
+        }
+        IntArrayList prefix = new IntArrayList(callStack);
+        IntArrayList entryPath = AcceptingWalk.path(root, accepting::contains, scc::get, this::forEachEdge);
+        int entry = entryPath.getInt(entryPath.size() - 1);
+        prefix.addAll(entryPath.subList(0, entryPath.size() - 1));
+        IntArrayList walk = AcceptingWalk.closedWalk(entry, accepting::contains, accepting.requiredColours(),
+                        accepting.restrict(this::forEachEdge));
+        return lasso(prefix, walk);
+    }
+
+    private List<RunState<S>> lasso(IntArrayList prefix, IntArrayList walk) {
+        List<RunState<S>> lasso = new ArrayList<>(prefix.size() + walk.size() + 1);
+        prefix.forEach(state -> lasso.add(graph.state(state)));
+        walk.forEach(state -> lasso.add(graph.state(state)));
+        lasso.add(graph.state(walk.getInt(0)));
+        return lasso;
+    }
+}
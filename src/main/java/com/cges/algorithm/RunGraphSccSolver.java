@@ -1,135 +1,274 @@
 package com.cges.algorithm;
 
-import com.cges.graph.RunGraph;
+import com.cges.graph.IndexedRunGraph;
+import com.cges.graph.RunAcceptance;
 import com.cges.graph.RunGraph.RunState;
-import com.google.common.collect.Lists;
-import it.unimi.dsi.fastutil.objects.Object2IntMap;
-import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
-import java.util.ArrayDeque;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
 import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.Queue;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BooleanSupplier;
 import javax.annotation.Nullable;
-import owl.automaton.algorithm.SccDecomposition;
 
+/**
+ * Searches for an accepting lasso. With at most one acceptance set, i.e. a single Buchi colour, the lasso has minimal
+ * length, where each cycle considered is a shortest cycle starting with an accepting edge from some root state, and the
+ * lasso enters it through the state closest to the initial states.
+ *
+ * <p>Roots are processed in order of their distance from the initial states. The search for the cycle of a root is
+ * bounded by the best lasso found so far, using that every lasso through an SCC needs at least the distance of the
+ * SCC from the initial states as prefix. Thus, in large SCCs with short cycles each root only explores a small
+ * neighbourhood instead of the whole SCC.</p>
+ *
+ * <p>With several acceptance sets or parity automata, a single edge in general does not suffice. Instead, the accepting
+ * part of each SCC (see {@link SccRefinement}) yields a closed walk from its state closest to the initial states, see
+ * {@link AcceptingWalk}, and the shortest of these lassos is chosen. This lasso is in general not minimal, which in
+ * particular is the case for several non-trivial goals composed from Buchi automata.</p>
+ *
+ * <p>Large graphs are decomposed in parallel, see {@link ParallelSccDecomposition}.</p>
+ */
 public final class RunGraphSccSolver {
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+
     private RunGraphSccSolver() {
     }
 
-    public static <S> List<RunState<S>> search(RunGraph<S> graph) {
-        List<Set<RunState<S>>> decomposition = SccDecomposition.of(graph.initialStates(), graph::successors)
-                        .sccsWithoutTransient();
-
-        Map<RunState<S>, List<RunState<S>>> shortestAcceptingCycle = new HashMap<>();
-        for (Set<RunState<S>> scc : decomposition) {
-            for (RunState<S> root : scc) {
-                Set<RunState<S>> states = graph.transitions(root).stream()
-                                .filter(t -> t.accepting() && scc.contains(t.successor()))
-                                .map(RunGraph.RunTransition::successor).collect(Collectors.toSet());
-                if (states.isEmpty()) {
-                    continue;
-                }
-                Map<RunState<S>, RunState<S>> predecessor = new HashMap<>();
-                for (RunState<S> state : states) {
-                    predecessor.put(state, null);
-                }
+    public static <S> List<RunState<S>> search(IndexedRunGraph<S> graph) {
+        return search(graph, () -> false);
+    }
 
-                Queue<RunState<S>> queue = new ArrayDeque<>(states);
-                List<RunState<S>> path = new ArrayList<>();
-                while (!queue.isEmpty()) {
-                    RunState<S> current = queue.poll();
-                    if (current.equals(root)) {
-                        RunState<S> pathState = current;
-                        while (pathState != null) {
-                            path.add(pathState);
-                            pathState = predecessor.get(pathState);
-                        }
-                        break;
-                    }
-                    for (RunState<S> successor : graph.successors(current)) {
-                        if (scc.contains(successor) && states.add(successor)) {
-                            predecessor.put(successor, current);
-                            queue.add(successor);
-                        }
-                    }
+    /**
+     * Searches until the given flag is raised, then throws a {@link CancellationException}. The flag is checked between
+     * the phases of the search, for each root or SCC and during the parallel decomposition of large graphs.
+     */
+    static <S> List<RunState<S>> search(IndexedRunGraph<S> graph, BooleanSupplier cancelled) {
+        int[] initialStates = graph.initialStates();
+        List<int[]> decomposition = graph.size() >= PARALLEL_THRESHOLD
+                        ? ParallelSccDecomposition.nonTransientSccs(graph, ForkJoinPool.commonPool(), cancelled)
+                        : IntSccDecomposition.nonTransientSccs(initialStates,
+                                        (state, action) -> graph.forEachSuccessor(state, (successor, colours) -> action
+                                                        .accept(successor)));
+        if (decomposition.isEmpty()) {
+            return List.of();
+        }
+        checkCancelled(cancelled);
+
+        int states = graph.size();
+        int[] sccIndex = new int[states];
+        Arrays.fill(sccIndex, -1);
+        for (int i = 0; i < decomposition.size(); i++) {
+            for (int state : decomposition.get(i)) {
+                sccIndex[state] = i;
+            }
+        }
+
+        // Breadth-first search from the initial states, yielding the shortest prefix to each state
+        int[] distance = new int[states];
+        int[] prefixPredecessor = new int[states];
+        Arrays.fill(distance, -1);
+        Arrays.fill(prefixPredecessor, -1);
+        int[] queue = new int[states];
+        int queueSize = 0;
+        for (int initialState : initialStates) {
+            if (distance[initialState] == -1) {
+                distance[initialState] = 0;
+                queue[queueSize++] = initialState;
+            }
+        }
+        for (int head = 0; head < queueSize; head++) {
+            int current = queue[head];
+            for (int edge = graph.edgeStart(current); edge < graph.edgeEnd(current); edge++) {
+                int successor = graph.target(edge);
+                if (distance[successor] == -1) {
+                    distance[successor] = distance[current] + 1;
+                    prefixPredecessor[successor] = current;
+                    queue[queueSize++] = successor;
                 }
-                assert !path.isEmpty();
-                shortestAcceptingCycle.put(root, path);
             }
         }
-        if (shortestAcceptingCycle.isEmpty()) {
+        int[] sccDistance = new int[decomposition.size()];
+        Arrays.fill(sccDistance, Integer.MAX_VALUE);
+        for (int state = 0; state < states; state++) {
+            int scc = sccIndex[state];
+            if (scc != -1) {
+                sccDistance[scc] = Math.min(sccDistance[scc], distance[state]);
+            }
+        }
+
+        RunAcceptance acceptance = graph.acceptance();
+        int[] cycle = acceptance.isBuchi() && Integer.bitCount(acceptance.buchiMask()) <= 1
+                        ? shortestCycle(graph, decomposition, sccIndex, distance, sccDistance, cancelled)
+                        : acceptingWalk(graph, decomposition, distance, sccDistance, cancelled);
+        if (cycle == null) {
             return List.of();
         }
 
-        Map<RunState<S>, List<RunState<S>>> shortestCycles = new HashMap<>();
-        for (List<RunState<S>> cycle : shortestAcceptingCycle.values()) {
-            int cycleSize = cycle.size();
-            for (RunState<S> loopState : cycle) {
-                List<RunState<S>> shortestCycle = shortestCycles.get(loopState);
-                if (shortestCycle == null || cycleSize < shortestCycle.size()) {
-                    shortestCycles.put(loopState, cycle);
+        // The cycle starts with its entry state, prepend the prefix and close the lasso
+        int entry = cycle[0];
+        IntArrayList prefix = new IntArrayList();
+        for (int state = prefixPredecessor[entry]; state != -1; state = prefixPredecessor[state]) {
+            prefix.add(state);
+        }
+        List<RunState<S>> path = new ArrayList<>(prefix.size() + cycle.length + 1);
+        for (int i = prefix.size() - 1; i >= 0; i--) {
+            path.add(graph.state(prefix.getInt(i)));
+        }
+        for (int loopState : cycle) {
+            path.add(graph.state(loopState));
+        }
+        path.add(graph.state(entry));
+        return path;
+    }
+
+    // Single acceptance set (or none, then every edge is accepting): bounded search for the shortest cycles through an
+    // accepting edge. Returns the best cycle starting with the state closest to the initial states.
+    @Nullable
+    private static int[] shortestCycle(IndexedRunGraph<?> graph, List<int[]> decomposition, int[] sccIndex,
+                    int[] distance, int[] sccDistance, BooleanSupplier cancelled) {
+        int acceptanceMask = graph.acceptance().buchiMask();
+        IntArrayList roots = new IntArrayList();
+        for (int[] scc : decomposition) {
+            for (int state : scc) {
+                for (int edge = graph.edgeStart(state); edge < graph.edgeEnd(state); edge++) {
+                    if ((graph.colours(edge) & acceptanceMask) == acceptanceMask
+                                    && sccIndex[graph.target(edge)] == sccIndex[state]) {
+                        roots.add(state);
+                        break;
+                    }
                 }
             }
         }
+        int[] sortedRoots = roots.toIntArray();
+        IntArrays.quickSort(sortedRoots, (a, b) -> Integer.compare(distance[a], distance[b]));
+
+        // The cycle searches use stamps instead of clearing the visited marks for each root
+        int states = graph.size();
+        int[] queue = new int[states];
+        int[] visitedStamp = new int[states];
+        int[] cyclePredecessor = new int[states];
+        int stamp = 0;
+
+        int bestTotalLength = Integer.MAX_VALUE;
+        int[] bestCycle = null;
+        for (int root : sortedRoots) {
+            checkCancelled(cancelled);
+            int rootScc = sccIndex[root];
+            int lowerBound = sccDistance[rootScc];
+            if (bestCycle != null && lowerBound + 1 >= bestTotalLength) {
+                continue;
+            }
+            stamp += 1;
 
-        Object2IntMap<RunState<S>> minimalDistance = new Object2IntOpenHashMap<>();
-        minimalDistance.defaultReturnValue(-1);
-        graph.initialStates().forEach(initial -> minimalDistance.put(initial, 0));
-        Queue<RunState<S>> queue = new PriorityQueue<>(Comparator.comparingInt(minimalDistance::getInt));
-        queue.addAll(graph.initialStates());
-
-        int shortestCycleTotalLength = Integer.MAX_VALUE;
-        @Nullable
-        List<RunState<S>> shortestCycle = null;
-        @Nullable
-        RunState<S> shortestCycleEntry = null;
-        Map<RunState<S>, RunState<S>> predecessor = new HashMap<>();
-
-        while (!queue.isEmpty()) {
-            RunState<S> current = queue.poll();
-            int distance = minimalDistance.getInt(current);
-            assert 0 <= distance && distance < Integer.MAX_VALUE;
-            if (shortestCycleTotalLength <= distance) {
-                break;
-            }
-            var cycle = shortestCycles.get(current);
-            if (cycle != null) {
-                int totalLength = cycle.size() + distance;
-                if (totalLength < shortestCycleTotalLength) {
-                    shortestCycle = cycle;
-                    shortestCycleEntry = current;
-                    shortestCycleTotalLength = totalLength;
+            // Layered breadth-first search from the accepting successors back to the root, a cycle closed in layer k
+            // has length k + 1
+            int queueSize = 0;
+            for (int edge = graph.edgeStart(root); edge < graph.edgeEnd(root); edge++) {
+                int successor = graph.target(edge);
+                if ((graph.colours(edge) & acceptanceMask) == acceptanceMask && sccIndex[successor] == rootScc
+                                && visitedStamp[successor] != stamp) {
+                    visitedStamp[successor] = stamp;
+                    cyclePredecessor[successor] = -1;
+                    queue[queueSize++] = successor;
+                }
+            }
+            int head = 0;
+            int layerEnd = queueSize;
+            int layer = 0;
+            boolean found = false;
+            while (head < queueSize) {
+                if (head == layerEnd) {
+                    layer += 1;
+                    layerEnd = queueSize;
+                    if (bestCycle != null && lowerBound + layer + 1 >= bestTotalLength) {
+                        break;
+                    }
+                }
+                int current = queue[head++];
+                if (current == root) {
+                    found = true;
+                    break;
                 }
+                for (int edge = graph.edgeStart(current); edge < graph.edgeEnd(current); edge++) {
+                    int successor = graph.target(edge);
+                    if (sccIndex[successor] == rootScc && visitedStamp[successor] != stamp) {
+                        visitedStamp[successor] = stamp;
+                        cyclePredecessor[successor] = current;
+                        queue[queueSize++] = successor;
+                    }
+                }
+            }
+            if (!found) {
+                continue;
             }
 
-            for (RunState<S> successor : graph.successors(current)) {
-                if (minimalDistance.putIfAbsent(successor, distance + 1) == -1) {
-                    predecessor.put(successor, current);
-                    queue.add(successor);
+            // The search yields the cycle in reverse order, i.e. the successor of each state is its predecessor in
+            // the array
+            int[] reverseCycle = new int[layer + 1];
+            int cycleState = root;
+            for (int i = 0; i < reverseCycle.length; i++) {
+                reverseCycle[i] = cycleState;
+                cycleState = cyclePredecessor[cycleState];
+            }
+            assert cycleState == -1;
+
+            int entryIndex = 0;
+            for (int i = 1; i < reverseCycle.length; i++) {
+                if (distance[reverseCycle[i]] < distance[reverseCycle[entryIndex]]) {
+                    entryIndex = i;
+                }
+            }
+            int totalLength = distance[reverseCycle[entryIndex]] + reverseCycle.length;
+            if (totalLength < bestTotalLength) {
+                bestTotalLength = totalLength;
+                int length = reverseCycle.length;
+                bestCycle = new int[length];
+                for (int i = 0; i < length; i++) {
+                    bestCycle[i] = reverseCycle[(entryIndex - i + length) % length];
                 }
             }
         }
+        return bestCycle;
+    }
 
-        assert shortestCycle != null;
-        List<RunState<S>> path = new ArrayList<>();
-        int index = shortestCycle.indexOf(shortestCycleEntry);
-        int cycleSize = shortestCycle.size();
-        for (int i = 0; i < cycleSize; i++) {
-            path.add(shortestCycle.get((index + i) % cycleSize));
+    // General case: a closed walk through the required colours from the entry of the accepting part of each SCC
+    @Nullable
+    private static int[] acceptingWalk(IndexedRunGraph<?> graph, List<int[]> decomposition, int[] distance,
+                    int[] sccDistance, BooleanSupplier cancelled) {
+        RunAcceptance acceptance = graph.acceptance();
+        int bestTotalLength = Integer.MAX_VALUE;
+        int[] bestWalk = null;
+        for (int i = 0; i < decomposition.size(); i++) {
+            checkCancelled(cancelled);
+            if (sccDistance[i] + 1 >= bestTotalLength) {
+                continue;
+            }
+            var accepting = SccRefinement.find(decomposition.get(i), graph::forEachSuccessor, acceptance);
+            if (accepting == null) {
+                continue;
+            }
+            int entry = accepting.states()[0];
+            for (int state : accepting.states()) {
+                if (distance[state] < distance[entry]) {
+                    entry = state;
+                }
+            }
+            IntArrayList walk = AcceptingWalk.closedWalk(entry, accepting::contains, accepting.requiredColours(),
+                            accepting.restrict(graph::forEachSuccessor));
+            int totalLength = distance[entry] + walk.size();
+            if (totalLength < bestTotalLength) {
+                bestTotalLength = totalLength;
+                bestWalk = walk.toIntArray();
+            }
         }
-        path.add(shortestCycleEntry);
-        Lists.reverse(path);
-        RunState<S> transientState = predecessor.get(shortestCycleEntry);
-        while (transientState != null) {
-            path.add(transientState);
-            transientState = predecessor.get(transientState);
+        return bestWalk;
+    }
+
+    private static void checkCancelled(BooleanSupplier cancelled) {
+        if (cancelled.getAsBoolean()) {
+            throw new CancellationException();
         }
-        return Lists.reverse(path);
     }
 }
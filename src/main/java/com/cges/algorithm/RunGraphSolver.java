@@ -1,96 +1,168 @@
 package com.cges.algorithm;
 
+import com.cges.graph.HistoryGame.HistoryState;
+import com.cges.graph.IndexedRunGraph;
 import com.cges.graph.RunGraph;
 import com.cges.graph.RunGraph.RunState;
 import com.cges.model.AcceptingLasso;
 import com.cges.model.EquilibriumStrategy;
 import com.cges.model.Move;
 import com.cges.model.Transition;
-import java.util.ArrayDeque;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Queue;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public final class RunGraphSolver {
+    private static final Logger logger = Logger.getLogger(RunGraphSolver.class.getName());
+
     public enum LassoSolver {
-        GRAPH_SEARCH, BMC
+        GRAPH_SEARCH, BMC, ON_THE_FLY, SYMBOLIC,
+        /** Runs {@link #GRAPH_SEARCH} and {@link #BMC} concurrently and takes the first answer. */
+        PORTFOLIO,
+        /** Nested depth-first search with bitstate hashing, which may miss lassos but uses fixed memory. */
+        BITSTATE
+    }
+
+    /** Default size of the bit arrays of {@link LassoSolver#BITSTATE}, as power of two. */
+    public static final int DEFAULT_BITSTATE_BITS = 28;
+    /** Range of the size of the bit arrays of {@link LassoSolver#BITSTATE}, as power of two. */
+    public static final int MIN_BITSTATE_BITS = 6;
+    public static final int MAX_BITSTATE_BITS = 32;
+
+    /** An equilibrium found by {@link #solveOnDemand}, with the run graph its lasso was searched in. */
+    public record OnDemandSolution<S>(RunGraph<S> runGraph, EquilibriumStrategy<S> strategy) {
     }
 
     private RunGraphSolver() {
     }
 
+    /** The number of portfolio races won by each engine so far, see {@link LassoSolver#PORTFOLIO}. */
+    public static Map<LassoSolver, Long> portfolioWins() {
+        return LassoPortfolio.wins();
+    }
+
     private static <S> boolean validate(EquilibriumStrategy<S> strategy, RunGraph<S> graph) {
         var lasso = strategy.lasso();
-        assert graph.initialStates().contains(lasso.states(true).iterator().next());
-        List<RunState<S>> loopStates = lasso.loopStates(true).toList();
-        assert loopStates.size() >= 2;
-        boolean isAccepting = false;
-        for (int i = 0; i < loopStates.size() - 1; i++) {
-            RunState<S> current = loopStates.get(i);
-            RunState<S> successor = loopStates.get(i + 1);
+        assert graph.initialStates().contains(lasso.state(0));
+        assert lasso.loopStart() < lasso.size();
+        int[] colours = {0};
+        for (int position = 0; position < lasso.size(); position++) {
+            RunState<S> current = lasso.state(position);
+            RunState<S> successor = lasso.state(lasso.successor(position));
             var historySuccessor = graph.suspectGame().historyGame()
-                            .transition(current.historyState(), strategy.moves().get(current))
+                            .transition(current.historyState(), strategy.moves().get(position))
                             .map(Transition::destination).orElseThrow();
             assert historySuccessor.equals(successor.historyState());
-            var graphTransitions = graph.transitions(current).stream()
-                            .filter(t -> historySuccessor.equals(t.successor().historyState()))
-                            .filter(t -> successor.equals(t.successor())).collect(Collectors.toSet());
-            assert !graphTransitions.isEmpty();
-            if (!isAccepting) {
-                isAccepting = graphTransitions.stream().anyMatch(RunGraph.RunTransition::accepting);
-            }
+            int successorId = graph.id(successor);
+            boolean inLoop = position >= lasso.loopStart();
+            boolean[] hasTransition = {false};
+            graph.forEachSuccessor(graph.id(current), (target, edgeColours) -> {
+                if (target == successorId) {
+                    hasTransition[0] = true;
+                    if (inLoop) {
+                        colours[0] |= edgeColours;
+                    }
+                }
+            });
+            assert hasTransition[0];
         }
+        assert graph.acceptance().isAccepting(colours[0]);
         // TODO Validate punishment strategies?
         return true;
     }
 
-    public static <S> Optional<EquilibriumStrategy<S>> solve(RunGraph<S> graph, LassoSolver solver) {
-        Set<RunState<S>> states = new HashSet<>(graph.initialStates());
-        Queue<RunState<S>> queue = new ArrayDeque<>(states);
-        while (!queue.isEmpty()) {
-            graph.successors(queue.poll()).forEach(s -> {
-                if (states.add(s)) {
-                    queue.add(s);
-                }
-            });
-        }
+    private static <S> IndexedRunGraph<S> explore(RunGraph<S> runGraph) {
+        IndexedRunGraph<S> graph = IndexedRunGraph.explore(runGraph);
+        logger.log(Level.FINE, "Run graph has {0} states and {1} edges",
+                        new Object[]{graph.size(), graph.edgeCount()});
+        return graph;
+    }
 
+    public static <S> Optional<EquilibriumStrategy<S>> solve(RunGraph<S> runGraph, LassoSolver solver) {
+        return solve(runGraph, solver, DEFAULT_BITSTATE_BITS);
+    }
+
+    public static <S> Optional<EquilibriumStrategy<S>> solve(RunGraph<S> runGraph, LassoSolver solver,
+                    int bitstateBits) {
         var path = switch (solver) {
-            case GRAPH_SEARCH -> RunGraphSccSolver.search(graph);
-            case BMC -> RunGraphBmcSolver.search(graph);
+            case GRAPH_SEARCH -> RunGraphSccSolver.search(explore(runGraph));
+            case BMC -> RunGraphBmcSolver.search(explore(runGraph));
+            case ON_THE_FLY -> RunGraphOnTheFlySolver.search(runGraph);
+            case SYMBOLIC -> RunGraphSymbolicSolver.search(runGraph);
+            case PORTFOLIO -> LassoPortfolio.search(explore(runGraph));
+            case BITSTATE -> RunGraphBitstateSolver.search(runGraph, bitstateBits);
         };
         if (path.isEmpty()) {
             return Optional.empty();
         }
 
         AcceptingLasso<S> lasso = new AcceptingLasso<>(path);
-        Iterator<RunState<S>> iterator = lasso.states(true).iterator();
-        var current = iterator.next();
-        var suspectGame = graph.suspectGame();
-        assert current.historyState().equals(suspectGame.initialState().historyState());
-        assert iterator.hasNext();
+        var suspectGame = runGraph.suspectGame();
+        assert lasso.state(0).historyState().equals(suspectGame.initialState().historyState());
 
         // Construct the sequence of moves to obtain the lasso
-        Map<RunState<S>, Move> runGraphMoves = new HashMap<>();
-        while (iterator.hasNext()) {
-            var next = iterator.next();
-            // TODO Bit ugly, could maybe store this information when constructing the lasso
-            Move move = suspectGame.historyGame().transitions(current.historyState())
-                            .filter(t -> t.destination().equals(next.historyState())).map(Transition::move).iterator()
-                            .next();
-            runGraphMoves.put(current, move);
-
-            // For each deviation, provide a proof that we can punish someone
-            current = next;
+        List<Move> runGraphMoves = new ArrayList<>(lasso.size());
+        for (int position = 0; position < lasso.size(); position++) {
+            RunState<S> current = lasso.state(position);
+            RunState<S> next = lasso.state(lasso.successor(position));
+            runGraphMoves.add(safeMove(runGraph.deviationStrategy(), current.historyState(), next.historyState()));
         }
-        var strategy = new EquilibriumStrategy<>(lasso, Map.copyOf(runGraphMoves), graph.deviationStrategy());
-        assert validate(strategy, graph);
+        var strategy = new EquilibriumStrategy<>(lasso, List.copyOf(runGraphMoves), runGraph.deviationStrategy());
+        assert validate(strategy, runGraph);
         return Optional.of(strategy);
     }
+
+    /**
+     * Searches for an equilibrium without deciding the punishability of all moves up front. A lasso is searched in the
+     * run graph where all moves not banned so far are assumed to be safe, and only the moves along the lasso are
+     * checked. If one of them has a losing deviation, it is banned and the search is repeated on a fresh run graph,
+     * since banning a move removes transitions from states explored already. Every round bans a move, so the loop
+     * terminates. The strategy is returned together with the run graph of the round in which it was found.
+     */
+    public static <S> Optional<OnDemandSolution<S>> solveOnDemand(Supplier<RunGraph<S>> runGraphs,
+                    OnDemandDeviationSolver<S> deviationSolver, LassoSolver solver, int bitstateBits) {
+        int rounds = 0;
+        while (true) {
+            rounds += 1;
+            RunGraph<S> runGraph = runGraphs.get();
+            var strategy = solve(runGraph, solver, bitstateBits);
+            if (strategy.isEmpty() || isPunishable(strategy.get(), deviationSolver)) {
+                logger.log(Level.FINE, "On-demand search took {0} rounds, checked {1} and banned {2} moves",
+                                new Object[]{rounds, deviationSolver.checkedMoves(), deviationSolver.bannedMoves()});
+                return strategy.map(s -> new OnDemandSolution<>(runGraph, s));
+            }
+        }
+    }
+
+    // Checks the moves of the lasso in order, stopping at the first move which gets banned
+    private static <S> boolean isPunishable(EquilibriumStrategy<S> strategy,
+                    OnDemandDeviationSolver<S> deviationSolver) {
+        AcceptingLasso<S> lasso = strategy.lasso();
+        for (int position = 0; position < lasso.size(); position++) {
+            if (!deviationSolver.check(lasso.state(position).historyState(), strategy.moves().get(position))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Several moves may lead to the same successor, only those without losing deviation are moves of the run graph
+    private static <S> Move safeMove(DeviationOracle<S> deviationOracle, HistoryState<S> current,
+                    HistoryState<S> successor) {
+        int[] move = {deviationOracle.moveOffset(current)};
+        Move[] safeMove = {null};
+        deviationOracle.historyGame().forEachTransition(current, transition -> {
+            if (safeMove[0] == null && transition.destination().equals(successor)
+                            && deviationOracle.isSafe(move[0])) {
+                safeMove[0] = transition.move();
+            }
+            move[0] += 1;
+        });
+        assert safeMove[0] != null : "No safe move from %s to %s".formatted(current, successor);
+        return safeMove[0];
+    }
 }
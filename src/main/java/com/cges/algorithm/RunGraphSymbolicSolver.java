@@ -0,0 +1,450 @@
+package com.cges.algorithm;
+
+import com.cges.graph.GoalAutomata.GoalAutomaton;
+import com.cges.graph.HistoryGame.HistoryState;
+import com.cges.graph.RunAcceptance;
+import com.cges.graph.RunGraph;
+import com.cges.graph.RunGraph.RunState;
+import com.google.common.collect.Lists;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import owl.automaton.edge.Edge;
+import owl.bdd.BddSet;
+import owl.bdd.BddSetFactory;
+import owl.bdd.FactorySupplier;
+
+/**
+ * Symbolic emptiness check of the run graph. A run state is encoded component-wise, i.e. the history state and the
+ * state of each goal automaton are binary encoded by their id within their component, using interleaved current and
+ * next state variables. The transition relation is the conjunction of the relation of the history game (after the
+ * deviation filter of the run graph) with the relation of each automaton, which depends on the current history state
+ * through its labels. Thus only the history game and the pairs of history and automaton states are enumerated, but
+ * never their product. The states admitting an accepting run are computed by the Emerson-Lei fixpoint
+ * {@code nu Z. AND_i mu Y. (Z & pre_i(Z)) | (Z & pre(Y))} over the Buchi colours, restricted to the states reachable
+ * from the initial states. A bottom SCC of the resulting states contains edges of all colours, from which a concrete
+ * lasso is extracted by layered images.
+ *
+ * <p>For parity automata, each combination of an even least priority per automaton is checked separately: the edges
+ * with smaller priorities are removed and the chosen priority is required like a Buchi colour. Colours are tracked per
+ * pair of states, which is exact since parity colours only stem from deterministic automata.</p>
+ */
+public final class RunGraphSymbolicSolver<S> {
+    private static final Logger logger = Logger.getLogger(RunGraphSymbolicSolver.class.getName());
+
+    private final RunGraph<S> graph;
+    private final BddSetFactory factory = FactorySupplier.defaultSupplier().getBddSetFactory();
+    // The explicit states of each component, the history states first and then those of each automaton
+    private final List<List<Object>> componentStates = new ArrayList<>();
+    // The first bit of each component, the last entry is the total number of bits
+    private int[] bitOffsets;
+    private BddSet initialStates;
+    private BddSet states;
+    private BddSet transitions;
+    // The transitions of each colour
+    private final List<BddSet> colourTransitions = new ArrayList<>();
+
+    private RunGraphSymbolicSolver(RunGraph<S> graph) {
+        this.graph = graph;
+    }
+
+    public static <S> List<RunState<S>> search(RunGraph<S> graph) {
+        if (graph.initialStates().isEmpty()) {
+            return List.of();
+        }
+        var solver = new RunGraphSymbolicSolver<>(graph);
+        solver.encode();
+        return solver.check();
+    }
+
+    private static int variable(int bit, boolean next) {
+        return 2 * bit + (next ? 1 : 0);
+    }
+
+    private BitSet variables(boolean next) {
+        BitSet variables = new BitSet();
+        for (int bit = 0; bit < bitOffsets[bitOffsets.length - 1]; bit++) {
+            variables.set(variable(bit, next));
+        }
+        return variables;
+    }
+
+    private BddSet encode(int component, int id, boolean next) {
+        BitSet valuation = new BitSet();
+        BitSet support = new BitSet();
+        for (int bit = bitOffsets[component]; bit < bitOffsets[component + 1]; bit++) {
+            support.set(variable(bit, next));
+            if ((id & (1 << (bit - bitOffsets[component]))) != 0) {
+                valuation.set(variable(bit, next));
+            }
+        }
+        return factory.of(valuation, support);
+    }
+
+    private BddSet encode(int[] state, boolean next) {
+        BddSet set = factory.of(true);
+        for (int component = 0; component < state.length; component++) {
+            set = set.intersection(encode(component, state[component], next));
+        }
+        return set;
+    }
+
+    private int[] decode(BddSet set) {
+        BitSet valuation = set.element().orElseThrow();
+        int[] state = new int[componentStates.size()];
+        for (int component = 0; component < state.length; component++) {
+            for (int bit = bitOffsets[component]; bit < bitOffsets[component + 1]; bit++) {
+                if (valuation.get(variable(bit, false))) {
+                    state[component] |= 1 << (bit - bitOffsets[component]);
+                }
+            }
+        }
+        return state;
+    }
+
+    @SuppressWarnings("unchecked")
+    private RunState<S> runState(int[] state) {
+        List<Object> automatonState = new ArrayList<>(state.length - 1);
+        for (int component = 1; component < state.length; component++) {
+            automatonState.add(componentStates.get(component).get(state[component]));
+        }
+        return new RunState<>(List.copyOf(automatonState),
+                        (HistoryState<S>) componentStates.get(0).get(state[0]));
+    }
+
+    private static int id(Object state, List<Object> states, Object2IntMap<Object> ids) {
+        int id = ids.getInt(state);
+        if (id == -1) {
+            id = states.size();
+            ids.put(state, id);
+            states.add(state);
+        }
+        return id;
+    }
+
+    private void encode() {
+        List<GoalAutomaton> automata = graph.automata();
+        int colourCount = graph.acceptance().colours();
+
+        // The history game restricted to moves without losing deviation
+        List<Object> historyStates = new ArrayList<>();
+        Object2IntMap<Object> historyIds = new Object2IntOpenHashMap<>();
+        historyIds.defaultReturnValue(-1);
+        List<IntArrayList> historySuccessors = new ArrayList<>();
+        id(graph.initialStates().iterator().next().historyState(), historyStates, historyIds);
+        for (int historyState = 0; historyState < historyStates.size(); historyState++) {
+            IntArrayList successors = new IntArrayList();
+            @SuppressWarnings("unchecked")
+            HistoryState<S> current = (HistoryState<S>) historyStates.get(historyState);
+            graph.forEachHistorySuccessor(current, successor -> {
+                int successorId = id(successor, historyStates, historyIds);
+                if (!successors.contains(successorId)) {
+                    successors.add(successorId);
+                }
+            });
+            historySuccessors.add(successors);
+        }
+        componentStates.add(historyStates);
+
+        // Each automaton with the history states, as quadruples of history state, state, successor and colours
+        List<IntArrayList> automatonEdges = new ArrayList<>(automata.size());
+        List<IntArrayList> initialIds = new ArrayList<>(automata.size());
+        for (int component = 0; component < automata.size(); component++) {
+            List<Object> automatonStates = new ArrayList<>();
+            Object2IntMap<Object> automatonIds = new Object2IntOpenHashMap<>();
+            automatonIds.defaultReturnValue(-1);
+            IntArrayList edges = new IntArrayList();
+            IntArrayList initial = new IntArrayList();
+
+            // Pairs of history and automaton state, encoded as history id in the upper half
+            LongSet visited = new LongOpenHashSet();
+            LongArrayList queue = new LongArrayList();
+            for (Object initialState : automata.get(component).automaton().initialStates()) {
+                int initialId = id(initialState, automatonStates, automatonIds);
+                initial.add(initialId);
+                if (visited.add(initialId)) {
+                    queue.add(initialId);
+                }
+            }
+            for (int head = 0; head < queue.size(); head++) {
+                long pair = queue.getLong(head);
+                int historyState = (int) (pair >>> Integer.SIZE);
+                int automatonState = (int) pair;
+                @SuppressWarnings("unchecked")
+                HistoryState<S> current = (HistoryState<S>) historyStates.get(historyState);
+                for (Edge<Object> edge : graph.automatonEdges(component, automatonStates.get(automatonState),
+                                current)) {
+                    int successor = id(edge.successor(), automatonStates, automatonIds);
+                    edges.add(historyState);
+                    edges.add(automatonState);
+                    edges.add(successor);
+                    edges.add(graph.colours(component, edge));
+                    for (int historySuccessor : historySuccessors.get(historyState)) {
+                        long successorPair = (long) historySuccessor << Integer.SIZE | successor;
+                        if (visited.add(successorPair)) {
+                            queue.add(successorPair);
+                        }
+                    }
+                }
+            }
+            componentStates.add(automatonStates);
+            automatonEdges.add(edges);
+            initialIds.add(initial);
+        }
+
+        bitOffsets = new int[componentStates.size() + 1];
+        for (int component = 0; component < componentStates.size(); component++) {
+            int size = componentStates.get(component).size();
+            bitOffsets[component + 1] = bitOffsets[component] + Integer.SIZE - Integer.numberOfLeadingZeros(size - 1);
+        }
+
+        // The relation of each component only constrains its own variables and the current history state
+        BddSet relation = factory.of(false);
+        for (int historyState = 0; historyState < historyStates.size(); historyState++) {
+            BddSet successors = factory.of(false);
+            for (int successor : historySuccessors.get(historyState)) {
+                successors = successors.union(encode(0, successor, true));
+            }
+            relation = relation.union(encode(0, historyState, false).intersection(successors));
+        }
+        List<BddSet> colourRelations = new ArrayList<>(colourCount);
+        for (int colour = 0; colour < colourCount; colour++) {
+            colourRelations.add(factory.of(false));
+        }
+        initialStates = encode(0, 0, false);
+        for (int component = 0; component < automata.size(); component++) {
+            IntArrayList edges = automatonEdges.get(component);
+            BddSet automatonRelation = factory.of(false);
+            BddSet[] automatonColours = new BddSet[colourCount];
+            Arrays.fill(automatonColours, factory.of(false));
+            for (int i = 0; i < edges.size(); i += 4) {
+                BddSet edge = encode(0, edges.getInt(i), false)
+                                .intersection(encode(component + 1, edges.getInt(i + 1), false))
+                                .intersection(encode(component + 1, edges.getInt(i + 2), true));
+                automatonRelation = automatonRelation.union(edge);
+                int colours = edges.getInt(i + 3);
+                for (int colour = 0; colour < colourCount; colour++) {
+                    if ((colours & (1 << colour)) != 0) {
+                        automatonColours[colour] = automatonColours[colour].union(edge);
+                    }
+                }
+            }
+            relation = relation.intersection(automatonRelation);
+            for (int colour = 0; colour < colourCount; colour++) {
+                colourRelations.set(colour, colourRelations.get(colour).union(automatonColours[colour]));
+            }
+
+            BddSet initial = factory.of(false);
+            for (int initialId : initialIds.get(component)) {
+                initial = initial.union(encode(component + 1, initialId, false));
+            }
+            initialStates = initialStates.intersection(initial);
+        }
+        transitions = relation;
+        for (BddSet colourRelation : colourRelations) {
+            colourTransitions.add(transitions.intersection(colourRelation));
+        }
+        states = forwardClosure(transitions, initialStates, factory.of(true));
+        logger.log(Level.FINE, "Encoded {0} history states and {1} automaton states with {2} bits",
+                        new Object[]{historyStates.size(),
+                                        componentStates.stream().skip(1).mapToInt(List::size).sum(),
+                                        bitOffsets[bitOffsets.length - 1]});
+    }
+
+    private BddSet pre(BddSet relation, BddSet target) {
+        return relation.intersection(target.relabel(variable -> variable + 1)).project(variables(true));
+    }
+
+    private BddSet post(BddSet relation, BddSet source) {
+        return relation.intersection(source).project(variables(false)).relabel(variable -> variable - 1);
+    }
+
+    private List<RunState<S>> check() {
+        RunAcceptance acceptance = graph.acceptance();
+        List<List<Integer>> evenPriorities = new ArrayList<>();
+        for (int component = 0; component < acceptance.parityComponents(); component++) {
+            List<Integer> priorities = new ArrayList<>();
+            for (int priority = 0; priority < acceptance.parityColours(component); priority += 2) {
+                priorities.add(priority);
+            }
+            evenPriorities.add(priorities);
+        }
+
+        for (List<Integer> leastPriorities : Lists.cartesianProduct(evenPriorities)) {
+            BddSet forbidden = factory.of(false);
+            List<BddSet> acceptanceRelations = new ArrayList<>();
+            for (int colour = 0; colour < colourTransitions.size(); colour++) {
+                if ((acceptance.buchiMask() & (1 << colour)) != 0) {
+                    acceptanceRelations.add(colourTransitions.get(colour));
+                }
+            }
+            for (int component = 0; component < leastPriorities.size(); component++) {
+                int offset = acceptance.parityOffset(component);
+                int leastPriority = leastPriorities.get(component);
+                for (int priority = 0; priority < leastPriority; priority++) {
+                    forbidden = forbidden.union(colourTransitions.get(offset + priority));
+                }
+                acceptanceRelations.add(colourTransitions.get(offset + leastPriority));
+            }
+            BddSet allowed = transitions.intersection(forbidden.complement());
+            acceptanceRelations.replaceAll(relation -> relation.intersection(allowed));
+            if (acceptanceRelations.isEmpty()) {
+                // Without any acceptance condition every transition is accepting
+                acceptanceRelations.add(allowed);
+            }
+
+            List<RunState<S>> lasso = check(allowed, acceptanceRelations);
+            if (!lasso.isEmpty()) {
+                return lasso;
+            }
+        }
+        return List.of();
+    }
+
+    private List<RunState<S>> check(BddSet allowed, List<BddSet> acceptanceRelations) {
+        // Emerson-Lei fixpoint: states which can reach an edge of each acceptance set into the set infinitely often
+        BddSet fair = states;
+        int iterations = 0;
+        while (true) {
+            iterations += 1;
+            BddSet next = fair;
+            for (BddSet accepting : acceptanceRelations) {
+                BddSet reach = fair.intersection(pre(accepting, fair));
+                while (true) {
+                    BddSet step = reach.union(fair.intersection(pre(allowed, reach)));
+                    if (reach.containsAll(step)) {
+                        break;
+                    }
+                    reach = step;
+                }
+                next = next.intersection(reach);
+            }
+            if (next.containsAll(fair)) {
+                break;
+            }
+            fair = next;
+        }
+        logger.log(Level.FINE, "Fixpoint converged after {0} iterations", iterations);
+        if (fair.isEmpty()) {
+            return List.of();
+        }
+
+        // Descend to a bottom SCC within the fixpoint. Every state of the fixpoint reaches an edge of each set which
+        // stays in the fixpoint, in a bottom SCC all these edges lie within the SCC. The fixpoint only contains
+        // reachable states, but the prefix may use edges which are not allowed in the cycle.
+        int[] root = decode(fair);
+        BddSet component;
+        while (true) {
+            BddSet rootSet = encode(root, false);
+            BddSet forward = forwardClosure(allowed, rootSet, fair);
+            component = forward.intersection(backwardClosure(allowed, rootSet, fair));
+            if (component.containsAll(forward)) {
+                break;
+            }
+            root = decode(forward.intersection(component.complement()));
+        }
+
+        List<int[]> prefix = shortestPath(transitions, initialStates, component, states);
+        int[] start = prefix.get(prefix.size() - 1);
+
+        // Closed walk from the start through an edge of each acceptance set which is not covered yet
+        List<int[]> walk = new ArrayList<>();
+        walk.add(start);
+        BitSet covered = new BitSet();
+        for (int set = 0; set < acceptanceRelations.size(); set++) {
+            if (covered.get(set)) {
+                continue;
+            }
+            BddSet accepting = acceptanceRelations.get(set);
+            int[] current = walk.get(walk.size() - 1);
+            List<int[]> path = shortestPath(allowed, encode(current, false),
+                            component.intersection(pre(accepting, component)), component);
+            int[] source = path.get(path.size() - 1);
+            path.add(decode(post(accepting, encode(source, false)).intersection(component)));
+            for (int i = 1; i < path.size(); i++) {
+                walk.add(path.get(i));
+                cover(covered, acceptanceRelations, path.get(i - 1), path.get(i));
+            }
+        }
+        int[] last = walk.get(walk.size() - 1);
+        if (!Arrays.equals(last, start) || walk.size() == 1) {
+            List<int[]> path = shortestPath(allowed, post(allowed, encode(last, false)).intersection(component),
+                            encode(start, false), component);
+            walk.addAll(path);
+        }
+        walk.remove(walk.size() - 1);
+
+        List<RunState<S>> lasso = new ArrayList<>(prefix.size() + walk.size());
+        prefix.forEach(state -> lasso.add(runState(state)));
+        for (int i = 1; i < walk.size(); i++) {
+            lasso.add(runState(walk.get(i)));
+        }
+        lasso.add(runState(start));
+        return lasso;
+    }
+
+    private void cover(BitSet covered, List<BddSet> acceptanceRelations, int[] source, int[] target) {
+        BddSet edge = encode(source, false).intersection(encode(target, true));
+        for (int set = 0; set < acceptanceRelations.size(); set++) {
+            if (!acceptanceRelations.get(set).intersection(edge).isEmpty()) {
+                covered.set(set);
+            }
+        }
+    }
+
+    private BddSet forwardClosure(BddSet relation, BddSet from, BddSet within) {
+        BddSet reached = from;
+        while (true) {
+            BddSet next = reached.union(post(relation, reached).intersection(within));
+            if (reached.containsAll(next)) {
+                return reached;
+            }
+            reached = next;
+        }
+    }
+
+    private BddSet backwardClosure(BddSet relation, BddSet from, BddSet within) {
+        BddSet reached = from;
+        while (true) {
+            BddSet next = reached.union(pre(relation, reached).intersection(within));
+            if (reached.containsAll(next)) {
+                return reached;
+            }
+            reached = next;
+        }
+    }
+
+    // Shortest path from some state of the first set to some state of the targets, computed by layered images and
+    // picking a predecessor in each layer backwards
+    private List<int[]> shortestPath(BddSet relation, BddSet from, BddSet targets, BddSet within) {
+        List<BddSet> layers = new ArrayList<>();
+        BddSet layer = from.intersection(within);
+        BddSet visited = layer;
+        while (layer.intersection(targets).isEmpty()) {
+            if (layer.isEmpty()) {
+                throw new IllegalStateException("Target not reachable");
+            }
+            layers.add(layer);
+            layer = post(relation, layer).intersection(within).intersection(visited.complement());
+            visited = visited.union(layer);
+        }
+
+        int[][] path = new int[layers.size() + 1][];
+        int[] current = decode(layer.intersection(targets));
+        path[layers.size()] = current;
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            current = decode(layers.get(i).intersection(pre(relation, encode(current, false))));
+            path[i] = current;
+        }
+        return new ArrayList<>(Arrays.asList(path));
+    }
+}
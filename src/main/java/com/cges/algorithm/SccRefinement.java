@@ -0,0 +1,88 @@
+package com.cges.algorithm;
+
+import com.cges.algorithm.AcceptingWalk.EdgeFunction;
+import com.cges.graph.RunAcceptance;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
+import javax.annotation.Nullable;
+
+/**
+ * Search for an accepting part of an SCC. With parity automata the acceptance is not monotone in the colours of a
+ * cycle: if the least priority of a parity automaton within an SCC is odd, an accepting cycle must avoid all edges of
+ * this priority. These edges are removed and the remainder is decomposed again, as in the emptiness check of Streett
+ * automata. An SCC without such priorities is accepting iff its edges are, then a closed walk through its
+ * {@link RunAcceptance#requiredColours(int) required colours} is an accepting cycle. For Buchi acceptance no edges are
+ * ever removed.
+ */
+final class SccRefinement {
+    /** A strongly connected set of states which is accepting when using only edges without the forbidden colours. */
+    record AcceptingScc(int[] states, BitSet members, int forbiddenColours, int requiredColours) {
+        boolean contains(int state) {
+            return members.get(state);
+        }
+
+        /** Restricts the given edges to the allowed ones. */
+        EdgeFunction restrict(EdgeFunction edges) {
+            return (state, action) -> edges.forEachEdge(state, (successor, colours) -> {
+                if ((colours & forbiddenColours) == 0) {
+                    action.accept(successor, colours);
+                }
+            });
+        }
+    }
+
+    private record Candidate(int[] states, int forbiddenColours) {
+    }
+
+    private SccRefinement() {
+    }
+
+    /** Returns an accepting strongly connected subset of the given SCC, or {@code null} if there is none. */
+    @Nullable
+    static AcceptingScc find(int[] scc, EdgeFunction edges, RunAcceptance acceptance) {
+        Deque<Candidate> candidates = new ArrayDeque<>();
+        candidates.push(new Candidate(scc, 0));
+        while (!candidates.isEmpty()) {
+            Candidate candidate = candidates.pop();
+            int forbidden = candidate.forbiddenColours();
+            BitSet members = new BitSet();
+            for (int state : candidate.states()) {
+                members.set(state);
+            }
+            boolean[] hasEdge = {false};
+            int[] colours = {0};
+            for (int state : candidate.states()) {
+                edges.forEachEdge(state, (successor, edgeColours) -> {
+                    if (members.get(successor) && (edgeColours & forbidden) == 0) {
+                        hasEdge[0] = true;
+                        colours[0] |= edgeColours;
+                    }
+                });
+            }
+            if (!hasEdge[0]) {
+                continue;
+            }
+
+            int rejecting = acceptance.rejectingColours(colours[0]);
+            if (rejecting == 0) {
+                // Removing edges can only lose colours, hence no part of a non-accepting candidate is accepting
+                if (acceptance.isAccepting(colours[0])) {
+                    return new AcceptingScc(candidate.states(), members, forbidden,
+                                    acceptance.requiredColours(colours[0]));
+                }
+                continue;
+            }
+            int refinedForbidden = forbidden | rejecting;
+            for (int[] refined : IntSccDecomposition.nonTransientSccs(candidate.states(),
+                            (state, action) -> edges.forEachEdge(state, (successor, edgeColours) -> {
+                                if (members.get(successor) && (edgeColours & refinedForbidden) == 0) {
+                                    action.accept(successor);
+                                }
+                            }))) {
+                candidates.push(new Candidate(refined, refinedForbidden));
+            }
+        }
+        return null;
+    }
+}
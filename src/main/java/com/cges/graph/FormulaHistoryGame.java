@@ -1,11 +1,11 @@
 package com.cges.graph;
 
 import com.cges.model.Agent;
+import com.cges.model.AgentIndex;
 import com.cges.model.ConcurrentGame;
+import com.cges.model.Move;
 import com.cges.model.Transition;
 import com.google.common.collect.Lists;
-import de.tum.in.naturals.Indices;
-import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.BitSet;
@@ -15,15 +15,35 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Queue;
 import java.util.Set;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import owl.ltl.Formula;
 import owl.ltl.rewriter.SimplifierRepository;
 
 public class FormulaHistoryGame<S> implements HistoryGame<S> {
-    private final Object2IntMap<Agent> indices;
+    private static final Logger logger = Logger.getLogger(FormulaHistoryGame.class.getName());
+
+    /**
+     * Result of the agent relevance analysis: the number of analysed game states and, for each agent, the number of
+     * these states in which the agent can influence the successor.
+     */
+    public record RelevanceStatistics(int states, Map<Agent, Integer> relevantStates) {
+        @Override
+        public String toString() {
+            return relevantStates.entrySet().stream()
+                            .sorted(Map.Entry.comparingByKey(Comparator.comparing(Agent::name)))
+                            .map(entry -> "%s: %d".formatted(entry.getKey().name(), entry.getValue()))
+                            .collect(Collectors.joining(", ", "relevant in %d states {".formatted(states), "}"));
+        }
+    }
+
+    private final AgentIndex agents;
 
     static final class ListHistoryState<S> implements HistoryState<S> {
         private static final Formula[] EMPTY = new Formula[0];
@@ -42,7 +62,7 @@ public class FormulaHistoryGame<S> implements HistoryGame<S> {
 
         @Override
         public Formula goal(Agent agent) {
-            return agentGoals[game.indices.getInt(agent)];
+            return agentGoals[game.agents.id(agent)];
         }
 
         @Override
@@ -72,53 +92,59 @@ public class FormulaHistoryGame<S> implements HistoryGame<S> {
 
         @Override
         public String toString() {
-            return state + " "
-                            + game.indices.object2IntEntrySet().stream()
-                                            .sorted(Map.Entry.comparingByKey(Comparator.comparing(Agent::name)))
-                                            .map(Map.Entry::getValue).map(i -> agentGoals[i])
-                                            .map(SimplifierRepository.SYNTACTIC_FIXPOINT::apply).map(Objects::toString)
-                                            .collect(Collectors.joining(",", "[", "]"));
+            return state + " " + game.agents.list().stream().sorted(Comparator.comparing(Agent::name))
+                            .map(game.agents::id).map(i -> agentGoals[i])
+                            .map(SimplifierRepository.SYNTACTIC_FIXPOINT::apply).map(Objects::toString)
+                            .collect(Collectors.joining(",", "[", "]"));
         }
     }
 
     private final ConcurrentGame<S> game;
     private final ListHistoryState<S> initialState;
-    private final Map<HistoryState<S>, Set<Transition<HistoryState<S>>>> transitions;
+    // Only the transitions of representative moves, see MoveQuotient
+    private final Map<HistoryState<S>, Map<Move, Transition<HistoryState<S>>>> transitions;
+    private final Map<S, MoveQuotient> moveQuotients;
 
     public FormulaHistoryGame(ConcurrentGame<S> game) {
         this.game = game;
 
-        var propositionIndices = Indices.ids(game.atomicPropositions());
-        indices = Indices.ids(game.agents());
+        agents = game.agentIndex();
 
         this.initialState = new ListHistoryState<>(game.initialState(),
-                        game.agents().stream().map(Agent::goal).map(Formula::unfold).toList(), this);
+                        agents.list().stream().map(Agent::goal).map(Formula::unfold).toList(), this);
 
-        Map<HistoryState<S>, Set<Transition<HistoryState<S>>>> transitions = new HashMap<>();
+        Map<HistoryState<S>, Map<Move, Transition<HistoryState<S>>>> transitions = new HashMap<>();
+        Map<S, MoveQuotient> moveQuotients = new HashMap<>();
         Set<ListHistoryState<S>> states = new HashSet<>(List.of(initialState));
         Queue<ListHistoryState<S>> queue = new ArrayDeque<>(states);
-        Map<S, BitSet> labelCache = new HashMap<>();
         while (!queue.isEmpty()) {
             ListHistoryState<S> state = queue.poll();
 
-            BitSet valuation = labelCache.computeIfAbsent(state.state(), s -> {
-                BitSet set = new BitSet();
-                game.labels(s).stream().map(propositionIndices::getInt).forEach(set::set);
-                return set;
-            });
+            BitSet valuation = game.labelBits(state.state());
             List<Formula> successorGoals = List
                             .copyOf(Lists.transform(state.goals(), goal -> goal.temporalStep(valuation).unfold()));
-            Set<Transition<HistoryState<S>>> stateTransitions = new HashSet<>();
+            MoveQuotient quotient = moveQuotients.computeIfAbsent(state.state(),
+                            s -> MoveQuotient.of(agents.list(), game.transitions(s)));
+            Map<Move, Transition<HistoryState<S>>> stateTransitions = new HashMap<>();
             for (Transition<S> transition : game.transitions(state.state())) {
+                if (!quotient.isRepresentative(transition.move())) {
+                    continue;
+                }
                 ListHistoryState<S> successor = new ListHistoryState<>(transition.destination(), successorGoals, this);
-                stateTransitions.add(transition.withDestination(successor));
+                var previous = stateTransitions.put(transition.move(), transition.withDestination(successor));
+                assert previous == null : "Move %s is not deterministic in %s".formatted(transition.move(), state);
                 if (states.add(successor)) {
                     queue.add(successor);
                 }
             }
-            transitions.put(state, Set.copyOf(stateTransitions));
+            transitions.put(state, Map.copyOf(stateTransitions));
         }
         this.transitions = Map.copyOf(transitions);
+        this.moveQuotients = Map.copyOf(moveQuotients);
+        logger.log(Level.FINE, () -> "Quotiented %d moves into %d classes over %d states".formatted(
+                        this.moveQuotients.values().stream().mapToInt(MoveQuotient::moveCount).sum(),
+                        this.moveQuotients.values().stream().mapToInt(MoveQuotient::classCount).sum(),
+                        this.moveQuotients.size()));
     }
 
     @Override
@@ -129,7 +155,45 @@ public class FormulaHistoryGame<S> implements HistoryGame<S> {
     @Override
     public Stream<Transition<HistoryState<S>>> transitions(HistoryState<S> state) {
         assert transitions.containsKey(state);
-        return transitions.get(state).stream();
+        return transitions.get(state).values().stream();
+    }
+
+    @Override
+    public void forEachTransition(HistoryState<S> state, Consumer<Transition<HistoryState<S>>> action) {
+        assert transitions.containsKey(state);
+        transitions.get(state).values().forEach(action);
+    }
+
+    @Override
+    public Set<Agent> relevantAgents(HistoryState<S> state) {
+        assert transitions.containsKey(state);
+        return moveQuotients.get(state.state()).relevantAgents();
+    }
+
+    public RelevanceStatistics relevanceStatistics() {
+        Map<Agent, Integer> relevantStates = new HashMap<>();
+        agents.forEach(agent -> relevantStates.put(agent, 0));
+        for (MoveQuotient quotient : moveQuotients.values()) {
+            quotient.relevantAgents().forEach(agent -> relevantStates.merge(agent, 1, Integer::sum));
+        }
+        return new RelevanceStatistics(moveQuotients.size(), Map.copyOf(relevantStates));
+    }
+
+    @Override
+    public Set<Move> equivalentMoves(HistoryState<S> state, Move move) {
+        assert transitions.containsKey(state);
+        return moveQuotients.get(state.state()).moveClass(move);
+    }
+
+    @Override
+    public Optional<Transition<HistoryState<S>>> transition(HistoryState<S> state, Move move) {
+        assert transitions.containsKey(state);
+        Move representative = moveQuotients.get(state.state()).representative(move);
+        if (representative == null) {
+            return Optional.empty();
+        }
+        Transition<HistoryState<S>> transition = transitions.get(state).get(representative);
+        return Optional.of(representative.equals(move) ? transition : new Transition<>(move, transition.destination()));
     }
 
     @Override
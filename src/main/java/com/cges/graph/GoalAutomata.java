@@ -0,0 +1,140 @@
+package com.cges.graph;
+
+import com.cges.model.Agent;
+import com.cges.model.ConcurrentGame;
+import com.cges.model.LabelProjection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import owl.automaton.Automaton;
+import owl.automaton.ParityUtil;
+import owl.automaton.acceptance.BuchiAcceptance;
+import owl.automaton.acceptance.ParityAcceptance;
+import owl.automaton.edge.Edge;
+import owl.ltl.Conjunction;
+import owl.ltl.Formula;
+import owl.ltl.LabelledFormula;
+import owl.ltl.rewriter.LiteralMapper;
+import owl.ltl.rewriter.SimplifierRepository;
+import owl.translations.LtlTranslationRepository;
+import owl.translations.LtlTranslationRepository.BranchingMode;
+import owl.translations.LtlTranslationRepository.Option;
+
+/**
+ * Automata for the goal of each agent, its negation and the goal of the game. Each of these formulas is translated at
+ * most once per game, the run graph of a payoff assignment composes the automata it needs instead of translating the
+ * conjunction of all goals.
+ */
+public final class GoalAutomata {
+    private static final Logger logger = Logger.getLogger(GoalAutomata.class.getName());
+
+    /**
+     * The kind of automata to construct. Non-deterministic automata are usually smallest, but each of their choices
+     * multiplies the transitions of the run graph, while deterministic automata keep it close to the history game.
+     */
+    public enum AutomatonType {
+        NBA, LDBA, DPA
+    }
+
+    /**
+     * A translated goal together with the projection of the game labels onto the propositions of the automaton. Buchi
+     * automata have a single colour, parity automata (with min even acceptance) one colour per priority, where
+     * uncoloured edges get the largest priority.
+     */
+    public record GoalAutomaton(Formula goal, Automaton<Object, ?> automaton, LabelProjection labelProjection,
+                    boolean parity, int colours) {
+        /** The colour of the given edge, or {@code -1} for a non-accepting edge of a Buchi automaton. */
+        public int colour(Edge<?> edge) {
+            if (parity) {
+                return edge.colours().first().orElse(colours - 1);
+            }
+            return edge.colours().isEmpty() ? -1 : 0;
+        }
+    }
+
+    private final List<String> atomicPropositions;
+    private final Formula gameGoal;
+    private final AutomatonType type;
+    private final Function<LabelledFormula, ? extends Automaton<?, ?>> translator;
+    private final Map<Formula, GoalAutomaton> automata = new HashMap<>();
+    private final Map<Formula, GoalAutomaton> conjunctions = new HashMap<>();
+
+    public GoalAutomata(ConcurrentGame<?> game, AutomatonType type) {
+        this.atomicPropositions = game.atomicPropositions();
+        this.gameGoal = game.goal().formula();
+        this.type = type;
+        this.translator = translator(type);
+    }
+
+    private static Function<LabelledFormula, ? extends Automaton<?, ?>> translator(AutomatonType type) {
+        var options = EnumSet.of(Option.COMPLETE, Option.SIMPLIFY_AUTOMATON);
+        return switch (type) {
+            case NBA -> LtlTranslationRepository.defaultTranslation(options, BranchingMode.NON_DETERMINISTIC,
+                            BuchiAcceptance.class);
+            case LDBA -> LtlTranslationRepository.defaultTranslation(options, BranchingMode.LIMIT_DETERMINISTIC,
+                            BuchiAcceptance.class);
+            case DPA -> LtlTranslationRepository.defaultTranslation(options, BranchingMode.DETERMINISTIC,
+                            ParityAcceptance.class);
+        };
+    }
+
+    /** The automaton for the goal of the given agent if it is winning and for the negated goal otherwise. */
+    public GoalAutomaton agentGoal(Agent agent, boolean winning) {
+        return automaton(winning ? agent.goal() : agent.goal().not());
+    }
+
+    public GoalAutomaton gameGoal() {
+        return automaton(gameGoal);
+    }
+
+    /**
+     * An automaton for the conjunction of the goals of the given automata. The run graph uses it instead of composing
+     * the automata if their colours do not fit into the masks of {@link RunAcceptance}. It has the type of the other
+     * automata, except that a parity automaton with too many priorities is replaced by a Buchi automaton, which has a
+     * single colour.
+     */
+    public synchronized GoalAutomaton conjunction(List<GoalAutomaton> components) {
+        Formula conjunction = Conjunction.of(components.stream().map(GoalAutomaton::goal).toList());
+        return conjunctions.computeIfAbsent(conjunction, formula -> {
+            GoalAutomaton automaton = translate(formula, type, translator);
+            return automaton.colours() <= RunAcceptance.MAX_COLOURS
+                            ? automaton
+                            : translate(formula, AutomatonType.NBA, translator(AutomatonType.NBA));
+        });
+    }
+
+    /** Number of distinct formulas translated so far. */
+    public synchronized int translations() {
+        return automata.size() + conjunctions.size();
+    }
+
+    private synchronized GoalAutomaton automaton(Formula formula) {
+        return automata.computeIfAbsent(formula, goal -> translate(goal, type, translator));
+    }
+
+    @SuppressWarnings("unchecked")
+    private GoalAutomaton translate(Formula formula, AutomatonType type,
+                    Function<LabelledFormula, ? extends Automaton<?, ?>> translator) {
+        LabelledFormula goal = SimplifierRepository.SYNTACTIC_FIXPOINT
+                        .apply(LabelledFormula.of(formula, atomicPropositions));
+        LiteralMapper.ShiftedLabelledFormula shifted = LiteralMapper.shiftLiterals(goal);
+        var labelProjection = LabelProjection.of(shifted);
+        GoalAutomaton automaton;
+        if (type == AutomatonType.DPA) {
+            var dpa = (Automaton<Object, ParityAcceptance>) ParityUtil.convert(
+                            (Automaton<Object, ParityAcceptance>) translator.apply(shifted.formula),
+                            ParityAcceptance.Parity.MIN_EVEN);
+            automaton = new GoalAutomaton(goal.formula(), dpa, labelProjection, true,
+                            dpa.acceptance().acceptanceSets() + 1);
+        } else {
+            var nba = (Automaton<Object, BuchiAcceptance>) translator.apply(shifted.formula);
+            automaton = new GoalAutomaton(goal.formula(), nba, labelProjection, false, 1);
+        }
+        logger.log(Level.FINE, "Translated goal {0} to {1}", new Object[]{goal, type});
+        return automaton;
+    }
+}
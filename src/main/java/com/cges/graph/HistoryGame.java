@@ -5,19 +5,53 @@ import com.cges.model.ConcurrentGame;
 import com.cges.model.Move;
 import com.cges.model.Transition;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 import owl.ltl.Formula;
 
 public interface HistoryGame<S> {
     HistoryState<S> initialState();
 
+    /**
+     * The transitions of the given state. Implementations may quotient the available moves, in which case only one
+     * representative move per class is listed and the whole class is given by {@link #equivalentMoves}.
+     */
     Stream<Transition<HistoryState<S>>> transitions(HistoryState<S> state);
 
+    /** All moves of the concurrent game which are represented by the given move of {@link #transitions}. */
+    default Set<Move> equivalentMoves(HistoryState<S> state, Move move) {
+        return Set.of(move);
+    }
+
+    /** The transitions of all moves of the concurrent game, i.e. expanding the move classes of {@link #transitions}. */
+    default Stream<Transition<HistoryState<S>>> allTransitions(HistoryState<S> state) {
+        return transitions(state).flatMap(transition -> equivalentMoves(state, transition.move()).stream()
+                        .map(move -> new Transition<>(move, transition.destination())));
+    }
+
+    default void forEachTransition(HistoryState<S> state, Consumer<Transition<HistoryState<S>>> action) {
+        transitions(state).forEach(action);
+    }
+
+    /**
+     * The transition taken under the given move, which may be any move of the concurrent game. The default
+     * implementation scans all transitions; implementations which store their transitions should answer this by a
+     * direct lookup.
+     */
     default Optional<Transition<HistoryState<S>>> transition(HistoryState<S> state, Move move) {
         assert transitions(state).filter(t -> t.move().equals(move)).count() <= 1;
         return transitions(state).filter(t -> t.move().equals(move)).findAny();
     }
 
+    /**
+     * Agents which can influence the successor of the given state by changing only their own action. Other agents
+     * never need to be considered as deviating in this state.
+     */
+    default Set<Agent> relevantAgents(HistoryState<S> state) {
+        return concurrentGame().agents();
+    }
+
     ConcurrentGame<S> concurrentGame();
 
     interface HistoryState<S> {
@@ -0,0 +1,100 @@
+package com.cges.graph;
+
+import com.cges.graph.RunGraph.RunState;
+import com.cges.graph.RunGraph.SuccessorConsumer;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import java.util.Arrays;
+
+/**
+ * The reachable part of a {@link RunGraph}, explored once and stored in compressed sparse row form. States are
+ * identified by their {@link RunGraph#id(RunState) id} in the run graph, which are dense in {@code [0, size())}. The
+ * edges of state {@code s} are the indices {@code [edgeStart(s), edgeEnd(s))}.
+ */
+public final class IndexedRunGraph<S> {
+    private final RunGraph<S> graph;
+    private final int[] initialStates;
+    private final int[] offsets;
+    private final int[] targets;
+    private final int[] colours;
+
+    private IndexedRunGraph(RunGraph<S> graph, int[] initialStates, int[] offsets, int[] targets, int[] colours) {
+        this.graph = graph;
+        this.initialStates = initialStates;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.colours = colours;
+    }
+
+    public static <S> IndexedRunGraph<S> explore(RunGraph<S> graph) {
+        int[] initialStates = graph.initialStateIds();
+        IntArrayList offsets = new IntArrayList();
+        IntArrayList targets = new IntArrayList();
+        IntArrayList colours = new IntArrayList();
+
+        // The run graph numbers states in order of discovery, so processing ids in ascending order is a breadth-first
+        // search which expands every reachable state exactly once
+        for (int state = 0; state < graph.numberedStates(); state++) {
+            offsets.add(targets.size());
+            graph.forEachSuccessor(state, (successor, edgeColours) -> {
+                targets.add(successor);
+                colours.add(edgeColours);
+            });
+        }
+        offsets.add(targets.size());
+        return new IndexedRunGraph<>(graph, initialStates, offsets.toIntArray(), targets.toIntArray(),
+                        colours.toIntArray());
+    }
+
+    public RunGraph<S> runGraph() {
+        return graph;
+    }
+
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    public int edgeCount() {
+        return targets.length;
+    }
+
+    public int[] initialStates() {
+        return Arrays.copyOf(initialStates, initialStates.length);
+    }
+
+    public int edgeStart(int state) {
+        return offsets[state];
+    }
+
+    public int edgeEnd(int state) {
+        return offsets[state + 1];
+    }
+
+    public int target(int edge) {
+        return targets[edge];
+    }
+
+    /** The colours of the given edge as bit mask, see {@link RunAcceptance}. */
+    public int colours(int edge) {
+        return colours[edge];
+    }
+
+    public RunAcceptance acceptance() {
+        return graph.acceptance();
+    }
+
+    public void forEachSuccessor(int state, SuccessorConsumer action) {
+        for (int edge = offsets[state]; edge < offsets[state + 1]; edge++) {
+            action.accept(targets[edge], colours[edge]);
+        }
+    }
+
+    public RunState<S> state(int id) {
+        return graph.state(id);
+    }
+
+    /** The id of the given state, or {@code -1} if it is not part of this graph. */
+    public int id(RunState<S> state) {
+        int id = graph.indexOf(state);
+        return id < size() ? id : -1;
+    }
+}
@@ -0,0 +1,109 @@
+package com.cges.graph;
+
+import com.cges.model.Action;
+import com.cges.model.Agent;
+import com.cges.model.Move;
+import com.cges.model.Transition;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Partition of the moves available in a state into classes of moves which lead to the same successor and admit the
+ * same single-agent deviations, i.e. for each agent the successors it can reach by changing only its own action
+ * coincide. The suspect game cannot distinguish moves of one class, hence it suffices to consider one representative.
+ *
+ * <p>As a by-product, this determines the agents which are relevant in the state, i.e. which can change the successor
+ * by changing their own action.</p>
+ */
+final class MoveQuotient {
+    private final Map<Move, Set<Move>> classes;
+    private final Map<Move, Move> representatives;
+    private final Set<Agent> relevantAgents;
+
+    private MoveQuotient(Map<Move, Set<Move>> classes, Map<Move, Move> representatives, Set<Agent> relevantAgents) {
+        this.classes = classes;
+        this.representatives = representatives;
+        this.relevantAgents = relevantAgents;
+    }
+
+    static <S> MoveQuotient of(List<Agent> agents, Collection<Transition<S>> transitions) {
+        List<Transition<S>> transitionList = List.copyOf(transitions);
+        int moves = transitionList.size();
+        Action[][] actions = new Action[moves][];
+        Object[][] profiles = new Object[moves][agents.size() + 1];
+        for (int i = 0; i < moves; i++) {
+            Move move = transitionList.get(i).move();
+            actions[i] = agents.stream().map(move::action).toArray(Action[]::new);
+            profiles[i][0] = transitionList.get(i).destination();
+        }
+
+        // Moves which agree on all actions except the one of the given agent are exactly the moves this agent can
+        // reach by deviating. Group them by the remaining actions and collect the successors of each group.
+        Set<Agent> relevantAgents = new HashSet<>();
+        for (int agent = 0; agent < agents.size(); agent++) {
+            List<List<Action>> contexts = new ArrayList<>(moves);
+            Map<List<Action>, Set<S>> successorsByContext = new HashMap<>();
+            for (int i = 0; i < moves; i++) {
+                Action[] context = actions[i].clone();
+                context[agent] = null;
+                List<Action> key = Arrays.asList(context);
+                contexts.add(key);
+                successorsByContext.computeIfAbsent(key, k -> new HashSet<>())
+                                .add(transitionList.get(i).destination());
+            }
+            for (int i = 0; i < moves; i++) {
+                profiles[i][agent + 1] = successorsByContext.get(contexts.get(i));
+            }
+            if (successorsByContext.values().stream().anyMatch(successors -> successors.size() > 1)) {
+                relevantAgents.add(agents.get(agent));
+            }
+        }
+
+        Map<List<Object>, Move> representativeByProfile = new HashMap<>();
+        Map<Move, List<Move>> classes = new LinkedHashMap<>();
+        Map<Move, Move> representatives = new HashMap<>();
+        for (int i = 0; i < moves; i++) {
+            Move move = transitionList.get(i).move();
+            Move representative = representativeByProfile.computeIfAbsent(Arrays.asList(profiles[i]), k -> move);
+            classes.computeIfAbsent(representative, k -> new ArrayList<>()).add(move);
+            representatives.put(move, representative);
+        }
+        Map<Move, Set<Move>> classSets = new LinkedHashMap<>();
+        classes.forEach((representative, members) -> classSets.put(representative, Set.copyOf(members)));
+        return new MoveQuotient(classSets, Map.copyOf(representatives), Set.copyOf(relevantAgents));
+    }
+
+    boolean isRepresentative(Move move) {
+        return classes.containsKey(move);
+    }
+
+    /** The representative of the class of the given move, or {@code null} if the move is not available. */
+    Move representative(Move move) {
+        return representatives.get(move);
+    }
+
+    Set<Move> moveClass(Move representative) {
+        assert classes.containsKey(representative);
+        return classes.get(representative);
+    }
+
+    /** Agents which can change the successor by a unilateral deviation from some move. */
+    Set<Agent> relevantAgents() {
+        return relevantAgents;
+    }
+
+    int moveCount() {
+        return representatives.size();
+    }
+
+    int classCount() {
+        return classes.size();
+    }
+}
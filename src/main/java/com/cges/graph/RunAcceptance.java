@@ -0,0 +1,131 @@
+package com.cges.graph;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import java.util.List;
+
+/**
+ * Acceptance condition of a run graph: the conjunction of the conditions of its goal automata, each of which owns a
+ * range of colours. A Buchi automaton has a single colour which has to occur infinitely often. A (min even) parity
+ * automaton has one colour per priority and the least priority occurring infinitely often has to be even. The colours
+ * of an edge are given as bit mask, whether a cycle is accepting only depends on the union of its edges' colours.
+ */
+public final class RunAcceptance {
+    private final int colours;
+    private final int buchiMask;
+    private final int[] parityOffsets;
+    private final int[] parityColours;
+
+    private RunAcceptance(int colours, int buchiMask, int[] parityOffsets, int[] parityColours) {
+        this.colours = colours;
+        this.buchiMask = buchiMask;
+        this.parityOffsets = parityOffsets;
+        this.parityColours = parityColours;
+    }
+
+    /** The number of colours which fit into the bit masks. */
+    static final int MAX_COLOURS = Integer.SIZE - 1;
+
+    /** Whether the colours of the given automata fit into the bit masks together. */
+    static boolean fits(List<GoalAutomata.GoalAutomaton> automata) {
+        return automata.stream().mapToLong(GoalAutomata.GoalAutomaton::colours).sum() <= MAX_COLOURS;
+    }
+
+    /** Assigns consecutive ranges of colours to the given automata, in order. */
+    static RunAcceptance of(List<GoalAutomata.GoalAutomaton> automata) {
+        int colours = 0;
+        int buchiMask = 0;
+        IntArrayList parityOffsets = new IntArrayList();
+        IntArrayList parityColours = new IntArrayList();
+        for (GoalAutomata.GoalAutomaton automaton : automata) {
+            if (automaton.parity()) {
+                parityOffsets.add(colours);
+                parityColours.add(automaton.colours());
+            } else {
+                buchiMask |= 1 << colours;
+            }
+            colours += automaton.colours();
+        }
+        checkArgument(colours <= MAX_COLOURS, "Too many acceptance colours");
+        return new RunAcceptance(colours, buchiMask, parityOffsets.toIntArray(), parityColours.toIntArray());
+    }
+
+    /** Total number of colours. */
+    public int colours() {
+        return colours;
+    }
+
+    /** Whether all automata are Buchi automata, then a cycle is accepting iff it covers {@link #buchiMask()}. */
+    public boolean isBuchi() {
+        return parityOffsets.length == 0;
+    }
+
+    /** The colours of the Buchi automata, each of which has to occur on an accepting cycle. */
+    public int buchiMask() {
+        return buchiMask;
+    }
+
+    public int parityComponents() {
+        return parityOffsets.length;
+    }
+
+    /** The first colour of the given parity automaton, which corresponds to its priority zero. */
+    public int parityOffset(int component) {
+        return parityOffsets[component];
+    }
+
+    /** The number of priorities of the given parity automaton. */
+    public int parityColours(int component) {
+        return parityColours[component];
+    }
+
+    private int leastPriority(int colours, int component) {
+        int priorities = (colours >>> parityOffsets[component]) & ((1 << parityColours[component]) - 1);
+        return priorities == 0 ? -1 : Integer.numberOfTrailingZeros(priorities);
+    }
+
+    /** Whether a cycle whose edges have the given union of colours is accepting. */
+    public boolean isAccepting(int colours) {
+        if ((colours & buchiMask) != buchiMask) {
+            return false;
+        }
+        for (int component = 0; component < parityOffsets.length; component++) {
+            int priority = leastPriority(colours, component);
+            if (priority == -1 || priority % 2 != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The colours which no accepting cycle within a set of edges with the given union of colours can use, i.e. the
+     * least priority of each parity automaton if it is odd.
+     */
+    public int rejectingColours(int colours) {
+        int rejecting = 0;
+        for (int component = 0; component < parityOffsets.length; component++) {
+            int priority = leastPriority(colours, component);
+            if (priority != -1 && priority % 2 != 0) {
+                rejecting |= 1 << (parityOffsets[component] + priority);
+            }
+        }
+        return rejecting;
+    }
+
+    /**
+     * The colours a cycle within a set of edges with the given (accepting) union of colours has to cover to be
+     * accepting, i.e. all Buchi colours and the least priority of each parity automaton.
+     */
+    public int requiredColours(int colours) {
+        int required = buchiMask;
+        for (int component = 0; component < parityOffsets.length; component++) {
+            int priority = leastPriority(colours, component);
+            if (priority != -1) {
+                required |= 1 << (parityOffsets[component] + priority);
+            }
+        }
+        return required;
+    }
+}
@@ -1,111 +1,229 @@
 package com.cges.graph;
 
-import com.cges.algorithm.DeviationSolver;
-import com.cges.algorithm.PunishmentStrategy;
+import com.cges.algorithm.DeviationOracle;
+import com.cges.graph.GoalAutomata.GoalAutomaton;
 import com.cges.graph.HistoryGame.HistoryState;
 import com.cges.model.Agent;
 import com.cges.model.ConcurrentGame;
 import com.cges.model.PayoffAssignment;
 import com.cges.output.DotFormatted;
+import com.google.common.collect.Lists;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Comparator;
-import java.util.EnumSet;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
-import java.util.function.Function;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
-import owl.automaton.Automaton;
-import owl.automaton.acceptance.BuchiAcceptance;
 import owl.automaton.edge.Edge;
 import owl.ltl.BooleanConstant;
-import owl.ltl.Conjunction;
 import owl.ltl.LabelledFormula;
-import owl.ltl.rewriter.LiteralMapper;
-import owl.ltl.rewriter.SimplifierRepository;
-import owl.translations.LtlTranslationRepository;
-import owl.translations.LtlTranslationRepository.BranchingMode;
-import owl.translations.LtlTranslationRepository.Option;
 
+/**
+ * Product of the history game with the goal automata of a payoff assignment, restricted to moves without losing
+ * deviation. The automata are composed on the fly without degeneralization, the acceptance is the conjunction of their
+ * conditions, see {@link RunAcceptance}, and the colours of a transition are given as bit mask.
+ */
 public final class RunGraph<S> {
-    public record RunTransition<S>(RunState<S> successor, boolean accepting) {
+    private static final Logger logger = Logger.getLogger(RunGraph.class.getName());
+
+    public record RunTransition<S>(RunState<S> successor, int colours) {
+    }
+
+    /** Receives the successors of a state, identified by their {@link #id(RunState) id}. */
+    @FunctionalInterface
+    public interface SuccessorConsumer {
+        void accept(int successor, int colours);
     }
 
-    private final Automaton<Object, BuchiAcceptance> automaton;
+    @FunctionalInterface
+    private interface TransitionConsumer<S> {
+        void accept(RunState<S> successor, int colours);
+    }
+
+    private final List<GoalAutomaton> automata;
+    private final int[] colourOffsets;
+    private final RunAcceptance acceptance;
     private final SuspectGame<S> suspectGame;
-    private final Map<S, BitSet> labelCache = new HashMap<>();
-    private final Map<String, Integer> propositionIndex;
-    private final DeviationSolver<S> deviationSolver;
+    private final DeviationOracle<S> deviationSolver;
     private final HistoryGame<S> historyGame;
+    private final Set<RunState<S>> initialStates;
+
+    private final Object2IntMap<RunState<S>> stateIds = new Object2IntOpenHashMap<>();
+    private final List<RunState<S>> states = new ArrayList<>();
 
-    @SuppressWarnings("unchecked")
-    public RunGraph(SuspectGame<S> suspectGame, PayoffAssignment payoffAssignment) {
+    public RunGraph(SuspectGame<S> suspectGame, PayoffAssignment payoffAssignment, GoalAutomata goalAutomata,
+                    DeviationOracle<S> deviationSolver) {
         this.suspectGame = suspectGame;
         this.historyGame = suspectGame.historyGame();
         ConcurrentGame<S> concurrentGame = suspectGame.historyGame().concurrentGame();
         Set<Agent> agents = concurrentGame.agents();
 
-        LabelledFormula eveGoal = SimplifierRepository.SYNTACTIC_FIXPOINT.apply(LabelledFormula.of(
-                        Conjunction.of(Stream.concat(
-                                        agents.stream().map(
-                                                        a -> payoffAssignment.isLoser(a) ? a.goal().not() : a.goal()),
-                                        Stream.of(suspectGame.historyGame().concurrentGame().goal().formula()))),
-                        concurrentGame.atomicPropositions()));
-        LiteralMapper.ShiftedLabelledFormula shifted = LiteralMapper.shiftLiterals(eveGoal);
-        var translator = LtlTranslationRepository.defaultTranslation(
-                        EnumSet.of(Option.COMPLETE, Option.SIMPLIFY_AUTOMATON), BranchingMode.NON_DETERMINISTIC,
-                        BuchiAcceptance.class);
-        automaton = (Automaton<Object, BuchiAcceptance>) translator.apply(shifted.formula);
+        // Trivial goals do not constrain the run, hence they need neither a component nor colours
+        List<GoalAutomaton> components = Stream.concat(
+                        agents.stream().map(a -> goalAutomata.agentGoal(a, !payoffAssignment.isLoser(a))),
+                        Stream.of(goalAutomata.gameGoal()))
+                        .filter(automaton -> !automaton.goal().equals(BooleanConstant.TRUE)).toList();
+        if (RunAcceptance.fits(components)) {
+            automata = components;
+        } else {
+            // Too many colours for the masks, fall back to a single automaton for the conjunction of all goals
+            logger.log(Level.FINE, "Goals need too many colours, translating their conjunction");
+            automata = List.of(goalAutomata.conjunction(components));
+        }
+        acceptance = RunAcceptance.of(automata);
+        colourOffsets = new int[automata.size()];
+        for (int i = 1; i < automata.size(); i++) {
+            colourOffsets[i] = colourOffsets[i - 1] + automata.get(i - 1).colours();
+        }
+        this.deviationSolver = deviationSolver;
 
-        List<String> propositions = automaton.atomicPropositions();
-        propositionIndex = IntStream.range(0, propositions.size()).boxed()
-                        .collect(Collectors.toMap(propositions::get, Function.identity()));
-        deviationSolver = new DeviationSolver<>(suspectGame, payoffAssignment);
+        HistoryState<S> initialState = historyGame.initialState();
+        initialStates = deviationSolver.movesWithoutLosingDeviation(initialState).findAny().isPresent()
+                        ? Lists.cartesianProduct(automata.stream()
+                                        .map(automaton -> List.copyOf(automaton.automaton().initialStates())).toList())
+                                        .stream().map(s -> new RunState<S>(List.copyOf(s), initialState))
+                                        .collect(Collectors.toUnmodifiableSet())
+                        : Set.of();
+        stateIds.defaultReturnValue(-1);
     }
 
     public Set<RunState<S>> initialStates() {
-        HistoryState<S> initialState = historyGame.initialState();
-        if (deviationSolver.movesWithoutLosingDeviation(initialState).findAny().isPresent()) {
-            return automaton.initialStates().stream().map(s -> new RunState<>(s, initialState))
-                            .collect(Collectors.toSet());
-        }
-        return Set.of();
+        return initialStates;
+    }
+
+    public int[] initialStateIds() {
+        return initialStates.stream().mapToInt(this::id).toArray();
     }
 
-    public PunishmentStrategy<S> deviationStrategy() {
+    public DeviationOracle<S> deviationStrategy() {
         return deviationSolver;
     }
 
-    private BitSet labels(RunState<S> current) {
-        return labelCache.computeIfAbsent(current.historyState().state(), state -> {
-            BitSet set = new BitSet();
-            historyGame.concurrentGame().labels(current.historyState().state()).stream().map(propositionIndex::get)
-                            .filter(Objects::nonNull).forEach(set::set);
-            return set;
+    private void expand(RunState<S> current, TransitionConsumer<S> action) {
+        List<?> automatonState = (List<?>) current.automatonState();
+        HistoryState<S> historyState = current.historyState();
+        List<List<Edge<Object>>> componentEdges = new ArrayList<>(automata.size());
+        for (int i = 0; i < automata.size(); i++) {
+            Set<Edge<Object>> edges = automatonEdges(i, automatonState.get(i), historyState);
+            if (edges.isEmpty()) {
+                return;
+            }
+            componentEdges.add(List.copyOf(edges));
+        }
+
+        // The product edges only depend on the labels of the history state, compute them once for all moves
+        List<List<Edge<Object>>> productEdges = Lists.cartesianProduct(componentEdges);
+        List<List<Object>> successors = new ArrayList<>(productEdges.size());
+        int[] colours = new int[productEdges.size()];
+        for (int i = 0; i < productEdges.size(); i++) {
+            List<Edge<Object>> edges = productEdges.get(i);
+            List<Object> successor = new ArrayList<>(edges.size());
+            for (int component = 0; component < edges.size(); component++) {
+                Edge<Object> edge = edges.get(component);
+                successor.add(edge.successor());
+                colours[i] |= colours(component, edge);
+            }
+            successors.add(List.copyOf(successor));
+        }
+
+        forEachHistorySuccessor(historyState, destination -> {
+            for (int i = 0; i < successors.size(); i++) {
+                action.accept(new RunState<>(successors.get(i), destination), colours[i]);
+            }
         });
     }
 
-    public Set<RunTransition<S>> transitions(RunState<S> current) {
-        Set<Edge<Object>> automatonEdges = automaton.edges(current.automatonState(), labels(current));
-        if (automatonEdges.isEmpty()) { // || (automatonEdges.size() == 1 &&
-            // automatonEdges.iterator().next().successor().equals(Optional
-            // .empty()))) {
-            return Set.of();
-        }
-        HistoryState<S> historyState = current.historyState();
+    /**
+     * Iterates the history successors of the given state under moves without losing deviation. Successors reached by
+     * several moves are reported for each of them.
+     */
+    public void forEachHistorySuccessor(HistoryState<S> historyState, Consumer<HistoryState<S>> action) {
         assert historyGame.transitions(historyState).findAny().isPresent()
                         : "No history successors in state %s".formatted(historyState);
-        return historyGame.transitions(historyState)
-                        .filter(t -> deviationSolver.hasNoLosingDeviation(historyState, t.move()))
-                        .flatMap(transition -> automatonEdges.stream()
-                                        .map(edge -> new RunTransition<>(
-                                                        new RunState<>(edge.successor(), transition.destination()),
-                                                        !edge.colours().isEmpty())))
-                        .collect(Collectors.toSet());
+        int[] move = {deviationSolver.moveOffset(historyState)};
+        historyGame.forEachTransition(historyState, transition -> {
+            if (deviationSolver.isSafe(move[0]++)) {
+                action.accept(transition.destination());
+            }
+        });
+    }
+
+    /** The goal automata composed by this graph, the run states list their states in this order. */
+    public List<GoalAutomaton> automata() {
+        return automata;
+    }
+
+    /** The edges of the given component from its state under the labels of the given history state. */
+    public Set<Edge<Object>> automatonEdges(int component, Object automatonState, HistoryState<S> historyState) {
+        GoalAutomaton automaton = automata.get(component);
+        BitSet labels = historyGame.concurrentGame().labelBits(historyState.state());
+        return automaton.automaton().edges(automatonState, automaton.labelProjection().apply(labels));
+    }
+
+    /** The colours of an edge of the given component, as bit mask of the {@link #acceptance() acceptance}. */
+    public int colours(int component, Edge<Object> edge) {
+        int colour = automata.get(component).colour(edge);
+        return colour >= 0 ? 1 << (colourOffsets[component] + colour) : 0;
+    }
+
+    public Set<RunTransition<S>> transitions(RunState<S> current) {
+        Set<RunTransition<S>> transitions = new HashSet<>();
+        expand(current, (successor, colours) -> transitions.add(new RunTransition<>(successor, colours)));
+        return transitions;
+    }
+
+    public RunAcceptance acceptance() {
+        return acceptance;
+    }
+
+    /** Returns the id of the given state, numbering it if it has not been seen before. */
+    public int id(RunState<S> state) {
+        int id = stateIds.getInt(state);
+        if (id == -1) {
+            id = states.size();
+            stateIds.put(state, id);
+            states.add(state);
+        }
+        return id;
+    }
+
+    /** Returns the id of the given state, or {@code -1} if it has not been numbered yet. */
+    public int indexOf(RunState<S> state) {
+        return stateIds.getInt(state);
+    }
+
+    public RunState<S> state(int id) {
+        return states.get(id);
+    }
+
+    /** Number of states which have been assigned an id so far. */
+    public int numberedStates() {
+        return states.size();
+    }
+
+    /**
+     * Iterates the successors of the given state, numbering them if necessary. Duplicate transitions are reported
+     * only once. The transitions are recomputed on each call, use {@link IndexedRunGraph} for repeated traversals.
+     */
+    public void forEachSuccessor(int state, SuccessorConsumer action) {
+        // Encode the colours into the lower half to merge duplicate transitions
+        LongSet transitions = new LongOpenHashSet();
+        expand(states.get(state), (successor, colours) -> {
+            int successorId = id(successor);
+            if (transitions.add((long) successorId << Integer.SIZE | colours)) {
+                action.accept(successorId, colours);
+            }
+        });
     }
 
     public Set<RunState<S>> successors(RunState<S> state) {
@@ -116,8 +234,13 @@ public final class RunGraph<S> {
         return suspectGame;
     }
 
-    public List<String> automatonPropositions() {
-        return automaton.atomicPropositions();
+    /** Formats the automaton component of the given state, each goal automaton with its own propositions. */
+    public String automatonString(RunState<S> state) {
+        List<?> automatonState = (List<?>) state.automatonState();
+        return IntStream.range(0, automata.size())
+                        .mapToObj(i -> DotFormatted.toDotString(automatonState.get(i),
+                                        automata.get(i).automaton().atomicPropositions()))
+                        .collect(Collectors.joining(", ", "(", ")"));
     }
 
     public record RunState<S>(Object automatonState, HistoryState<S> historyState) implements DotFormatted {
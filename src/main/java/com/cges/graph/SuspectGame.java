@@ -2,15 +2,16 @@ package com.cges.graph;
 
 import com.cges.graph.HistoryGame.HistoryState;
 import com.cges.model.Agent;
+import com.cges.model.AgentIndex;
 import com.cges.model.Move;
 import com.cges.model.Transition;
 import com.google.common.collect.ImmutableSetMultimap;
-import com.google.common.collect.Sets;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -22,20 +23,26 @@ public final class SuspectGame<S> {
     }
 
     private final HistoryGame<S> game;
+    private final AgentIndex agents;
     private final EveState<S> initialState;
     private final Map<EveState<S>, Map<AdamState<S>, Set<EveState<S>>>> transitions = new HashMap<>();
 
     public SuspectGame(HistoryGame<S> game) {
         this.game = game;
-        this.initialState = new EveState<>(game.initialState(), Set.copyOf(game.concurrentGame().agents()));
+        this.agents = game.concurrentGame().agentIndex();
+        this.initialState = new EveState<>(game.initialState(), agents.agents());
     }
 
     public EveState<S> initialState() {
         return initialState;
     }
 
+    private Map<AdamState<S>, Set<EveState<S>>> deviations(EveState<S> eveState) {
+        return transitions.computeIfAbsent(eveState, this::computeDeviatingSuccessors);
+    }
+
     public Stream<SuspectTransition<S>> deviatingTransitions(EveState<S> eveState) {
-        return transitions.computeIfAbsent(eveState, this::computeDeviatingSuccessors).entrySet().stream().flatMap(
+        return deviations(eveState).entrySet().stream().flatMap(
                         entry -> entry.getValue().stream().map(eve -> new SuspectTransition<>(entry.getKey(), eve)));
     }
 
@@ -49,8 +56,22 @@ public final class SuspectGame<S> {
     }
 
     public Stream<EveState<S>> deviationSuccessors(AdamState<S> adamState) {
-        return transitions.computeIfAbsent(adamState.eveState(), this::computeDeviatingSuccessors).get(adamState)
-                        .stream();
+        return deviations(adamState.eveState()).get(adamState).stream();
+    }
+
+    // Callback variants of the above, iterating the cached successor structures without building streams
+
+    public void forEachSuccessor(EveState<S> eveState, Consumer<AdamState<S>> action) {
+        deviations(eveState).keySet().forEach(action);
+    }
+
+    public void forEachSuccessor(AdamState<S> adamState, Consumer<EveState<S>> action) {
+        action.accept(compliantSuccessor(adamState));
+        forEachDeviationSuccessor(adamState, action);
+    }
+
+    public void forEachDeviationSuccessor(AdamState<S> adamState, Consumer<EveState<S>> action) {
+        deviations(adamState.eveState()).get(adamState).forEach(action);
     }
 
     public EveState<S> compliantSuccessor(AdamState<S> adamState) {
@@ -60,9 +81,7 @@ public final class SuspectGame<S> {
     }
 
     public Stream<EveState<S>> eveSuccessors(EveState<S> eveState) {
-        return Stream.concat(
-                        transitions.computeIfAbsent(eveState, this::computeDeviatingSuccessors).values().stream()
-                                        .flatMap(Collection::stream),
+        return Stream.concat(deviations(eveState).values().stream().flatMap(Collection::stream),
                         game.transitions(eveState.historyState())
                                         .map(t -> new EveState<S>(t.destination(), eveState.suspects())));
     }
@@ -78,9 +97,18 @@ public final class SuspectGame<S> {
                                             t -> Set.of(new EveState<>(t.destination(), Set.of()))));
         }
 
-        var nonSuspects = Set.copyOf(Sets.difference(game.concurrentGame().agents(), eveState.suspects()));
+        // Suspects which cannot influence the successor in this state never yield a deviation
+        Set<Agent> relevantAgents = game.relevantAgents(gameState);
+        var relevantSuspects = eveState.suspects().stream().filter(relevantAgents::contains).toList();
+        if (relevantSuspects.isEmpty()) {
+            return game.transitions(gameState).collect(
+                            Collectors.toUnmodifiableMap(t -> new AdamState<>(eveState, t.move()), t -> Set.of()));
+        }
+        // Agents which have to stick to the proposed move, i.e. non-suspects and suspects which are irrelevant here
+        var fixedAgents = agents.list().stream().filter(a -> !relevantSuspects.contains(a)).toList();
 
-        var movesToSuccessors = game.transitions(eveState.historyState()).collect(
+        // Deviations may use any move, not only the representatives of the move classes
+        var movesToSuccessors = game.allTransitions(eveState.historyState()).collect(
                         ImmutableSetMultimap.toImmutableSetMultimap(Transition::destination, Transition::move));
         assert movesToSuccessors.entries().stream().anyMatch(e -> game.transition(eveState.historyState(), e.getValue())
                         .orElseThrow().destination().equals(e.getKey()));
@@ -93,13 +121,12 @@ public final class SuspectGame<S> {
             // Eve proposes this transition -- adam can either comply or change the choice
             // of one suspect
             Move proposedMove = proposedTransition.move();
-            Collection<Agent> currentSuspects = eveState.suspects();
-            assert !currentSuspects.isEmpty();
+            Collection<Agent> currentSuspects = relevantSuspects;
             assert movesToSuccessors.get(proposedTransition.destination()).contains(proposedMove);
 
             Set<EveState<S>> deviationSuccessors = new HashSet<>();
             // Check for each successor if we can reach it by a single deviation
-            game.transitions(eveState.historyState()).map(Transition::destination).forEach(alternativeSuccessor -> {
+            movesToSuccessors.keySet().forEach(alternativeSuccessor -> {
                 Set<Move> movesLeadingToAlternative = movesToSuccessors.get(alternativeSuccessor);
                 assert !alternativeSuccessor.equals(proposedTransition.destination())
                                 || movesLeadingToAlternative.contains(proposedMove);
@@ -107,7 +134,7 @@ public final class SuspectGame<S> {
                 if (!movesLeadingToAlternative.contains(proposedMove)) {
                     Collection<Agent> successorSuspects = new HashSet<>();
                     for (Move move : movesLeadingToAlternative) {
-                        if (nonSuspects.stream().allMatch(a -> move.action(a).equals(proposedMove.action(a)))) {
+                        if (fixedAgents.stream().allMatch(a -> move.action(a).equals(proposedMove.action(a)))) {
                             // Check if there is a single suspect who could deviate to achieve this move
                             // (i.e.
                             // move to the successor)
@@ -123,12 +150,12 @@ public final class SuspectGame<S> {
                             if (deviating != null) {
                                 successorSuspects.add(deviating);
                             }
-                            assert (game.concurrentGame().agents().stream()
+                            assert (agents.list().stream()
                                             .filter(a -> !move.action(a).equals(proposedMove.action(a)))
                                             .count() == 1) == (deviating != null);
                         }
                     }
-                    assert currentSuspects.containsAll(successorSuspects);
+                    assert eveState.suspects().containsAll(successorSuspects);
                     if (!successorSuspects.isEmpty()) {
                         deviationSuccessors.add(new EveState<>(alternativeSuccessor, Set.copyOf(successorSuspects)));
                     }
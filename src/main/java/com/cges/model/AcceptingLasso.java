@@ -3,77 +3,66 @@ package com.cges.model;
 import static com.google.common.base.Preconditions.checkArgument;
 
 import com.cges.graph.RunGraph.RunState;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import javax.annotation.Nullable;
 
+/**
+ * A lasso in the run graph, given by its sequence of positions. The loop of a lasso through several acceptance sets
+ * may visit a state more than once, hence the lasso is indexed by position rather than by state.
+ */
 public class AcceptingLasso<S> {
-    private final List<RunState<S>> transientStates;
-    private final List<RunState<S>> loopStates;
-    private final Map<RunState<S>, RunState<S>> successors;
+    private final List<RunState<S>> states;
+    private final int loopStart;
 
+    /**
+     * Creates the lasso from a path whose last state closes the loop. The loop starts at the first occurrence of that
+     * state.
+     */
     public AcceptingLasso(List<RunState<S>> loop) {
-        List<RunState<S>> transientStates = new ArrayList<>();
-        List<RunState<S>> loopStates = new ArrayList<>();
-        Map<RunState<S>, RunState<S>> successors = new HashMap<>();
         RunState<S> backLink = loop.get(loop.size() - 1);
-        boolean inLoop = false;
         List<RunState<S>> states = loop.subList(0, loop.size() - 1);
-        var iterator = states.iterator();
-        @Nullable
-        RunState<S> previous = null;
-        while (iterator.hasNext()) {
-            RunState<S> state = iterator.next();
-            if (!inLoop && state.equals(backLink)) {
-                inLoop = true;
-            }
-            if (previous != null) {
-                successors.put(previous, state);
-            }
-            if (inLoop) {
-                loopStates.add(state);
-            } else {
-                transientStates.add(state);
-            }
-            previous = state;
-        }
-        successors.put(previous, backLink);
-        checkArgument(inLoop);
+        int loopStart = states.indexOf(backLink);
+        checkArgument(loopStart >= 0);
 
-        this.transientStates = List.copyOf(transientStates);
-        this.loopStates = List.copyOf(loopStates);
-        this.successors = Map.copyOf(successors);
+        this.states = List.copyOf(states);
+        this.loopStart = loopStart;
     }
 
     public Stream<RunState<S>> transientStates() {
-        return transientStates.stream();
+        return states.subList(0, loopStart).stream();
     }
 
     public Stream<RunState<S>> loopStates(boolean withClosingState) {
-        return withClosingState
-                        ? Stream.concat(loopStates.stream(), Stream.of(loopStates.get(0)))
-                        : loopStates.stream();
+        Stream<RunState<S>> loopStates = states.subList(loopStart, states.size()).stream();
+        return withClosingState ? Stream.concat(loopStates, Stream.of(states.get(loopStart))) : loopStates;
     }
 
     public Stream<RunState<S>> states(boolean withClosingState) {
         return Stream.concat(transientStates(), loopStates(withClosingState));
     }
 
-    public RunState<S> successor(RunState<S> state) {
-        return successors.get(state);
+    /** The state at the given position, positions {@code [0, size())} cover the prefix followed by the loop. */
+    public RunState<S> state(int position) {
+        return states.get(position);
+    }
+
+    /** The position following the given one, which is the start of the loop for its last position. */
+    public int successor(int position) {
+        return position + 1 == states.size() ? loopStart : position + 1;
+    }
+
+    public int loopStart() {
+        return loopStart;
     }
 
     public int size() {
-        return transientStates.size() + loopStates.size();
+        return states.size();
     }
 
     @Override
     public String toString() {
-        return transientStates.stream().map(RunState::toString).collect(Collectors.joining("   ")) + " | "
-                        + loopStates.stream().map(RunState::toString).collect(Collectors.joining("   "));
+        return transientStates().map(RunState::toString).collect(Collectors.joining("   ")) + " | "
+                        + loopStates(false).map(RunState::toString).collect(Collectors.joining("   "));
     }
 }
@@ -0,0 +1,97 @@
+package com.cges.model;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Immutable registry of the agents of a game. Each agent is assigned a dense id in {@code [0, size())}, following the
+ * order in which the agents were given.
+ */
+public final class AgentIndex implements Iterable<Agent> {
+    private final Agent[] agents;
+    private final List<Agent> agentList;
+    private final Set<Agent> agentSet;
+    private final Map<String, Agent> byName;
+    private final Object2IntMap<Agent> ids;
+
+    private AgentIndex(List<Agent> agents) {
+        this.agents = agents.toArray(Agent[]::new);
+        this.agentList = List.copyOf(agents);
+        this.agentSet = Set.copyOf(agents);
+        checkArgument(agentSet.size() == this.agents.length, "Duplicate agents in %s", agents);
+
+        Map<String, Agent> byName = new HashMap<>();
+        Object2IntMap<Agent> ids = new Object2IntOpenHashMap<>(this.agents.length);
+        ids.defaultReturnValue(-1);
+        for (int i = 0; i < this.agents.length; i++) {
+            Agent agent = this.agents[i];
+            byName.put(agent.name(), agent);
+            ids.put(agent, i);
+        }
+        this.byName = Map.copyOf(byName);
+        this.ids = ids;
+    }
+
+    public static AgentIndex of(Collection<Agent> agents) {
+        return new AgentIndex(List.copyOf(agents));
+    }
+
+    public int size() {
+        return agents.length;
+    }
+
+    public int id(Agent agent) {
+        int id = ids.getInt(agent);
+        if (id == -1) {
+            throw new NoSuchElementException("Unknown agent " + agent.name());
+        }
+        return id;
+    }
+
+    public Agent agent(int id) {
+        return agents[id];
+    }
+
+    public Agent agent(String name) {
+        Agent agent = byName.get(name);
+        if (agent == null) {
+            throw new NoSuchElementException("Unknown agent " + name);
+        }
+        return agent;
+    }
+
+    /** Agents ordered by their id. */
+    public List<Agent> list() {
+        return agentList;
+    }
+
+    public Set<Agent> agents() {
+        return agentSet;
+    }
+
+    public void forEachIndexed(ObjIntConsumer<Agent> action) {
+        for (int i = 0; i < agents.length; i++) {
+            action.accept(agents[i], i);
+        }
+    }
+
+    @Override
+    public Iterator<Agent> iterator() {
+        return agentList.iterator();
+    }
+
+    @Override
+    public String toString() {
+        return agentList.toString();
+    }
+}
@@ -1,12 +1,9 @@
 package com.cges.model;
 
-import static com.google.common.base.Preconditions.checkState;
-
+import java.util.BitSet;
 import java.util.List;
-import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.stream.Collectors;
-import javax.annotation.Nullable;
 import owl.ltl.LabelledFormula;
 
 public interface ConcurrentGame<S> {
@@ -14,26 +11,28 @@ public interface ConcurrentGame<S> {
 
     List<String> atomicPropositions();
 
-    Set<Agent> agents();
+    AgentIndex agentIndex();
+
+    default Set<Agent> agents() {
+        return agentIndex().agents();
+    }
 
     default Agent agent(String name) {
-        @Nullable
-        Agent candidate = null;
-        for (Agent agent : agents()) {
-            if (agent.name().equals(name)) {
-                checkState(candidate == null);
-                candidate = agent;
-            }
-        }
-        if (candidate == null) {
-            throw new NoSuchElementException();
-        }
-        return candidate;
+        return agentIndex().agent(name);
     }
 
     S initialState();
 
-    Set<String> labels(S state);
+    /**
+     * Labels of the given state as indices into {@link #atomicPropositions()}. The returned set is shared and must not
+     * be modified.
+     */
+    BitSet labelBits(S state);
+
+    default Set<String> labels(S state) {
+        List<String> propositions = atomicPropositions();
+        return labelBits(state).stream().mapToObj(propositions::get).collect(Collectors.toUnmodifiableSet());
+    }
 
     LabelledFormula goal();
 
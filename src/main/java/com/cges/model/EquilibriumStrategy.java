@@ -1,18 +1,26 @@
 package com.cges.model;
 
 import com.cges.algorithm.PunishmentStrategy;
-import com.cges.graph.RunGraph;
-import java.util.Map;
+import java.util.List;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
-public record EquilibriumStrategy<S>(AcceptingLasso<S> lasso, Map<RunGraph.RunState<S>, Move> moves,
+/**
+ * The moves of Eve along the lasso, where the i-th move is played in the i-th position of the lasso, together with the
+ * strategy punishing deviations.
+ */
+public record EquilibriumStrategy<S>(AcceptingLasso<S> lasso, List<Move> moves,
                 PunishmentStrategy<S> punishmentStrategy) {
     @Override
     public String toString() {
         return "TRANSIENT"
-                        + lasso.transientStates().map(state -> state + "->" + moves.get(state))
+                        + IntStream.range(0, lasso.loopStart()).mapToObj(this::positionString)
                                         .collect(Collectors.joining("\n", "\n", "\n"))
-                        + "LOOP" + lasso.loopStates(false).map(state -> state + "->" + moves.get(state))
+                        + "LOOP" + IntStream.range(lasso.loopStart(), lasso.size()).mapToObj(this::positionString)
                                         .collect(Collectors.joining("\n", "\n", ""));
     }
+
+    private String positionString(int position) {
+        return lasso.state(position) + "->" + moves.get(position);
+    }
 }
@@ -0,0 +1,41 @@
+package com.cges.model;
+
+import com.google.common.primitives.ImmutableIntArray;
+import java.util.BitSet;
+import owl.ltl.rewriter.LiteralMapper;
+
+/**
+ * Translates label sets given as indices into a proposition list to the indices used by a formula obtained through
+ * {@link LiteralMapper#shiftLiterals}, dropping propositions the formula does not mention.
+ */
+public final class LabelProjection {
+    private final int[] mapping;
+
+    private LabelProjection(int[] mapping) {
+        this.mapping = mapping;
+    }
+
+    public static LabelProjection of(LiteralMapper.ShiftedLabelledFormula shifted) {
+        return of(shifted.mapping);
+    }
+
+    public static LabelProjection of(ImmutableIntArray mapping) {
+        return new LabelProjection(mapping.toArray());
+    }
+
+    /** The shifted index of the given proposition, or {@code -1} if it does not occur (or is negative). */
+    public int index(int proposition) {
+        return 0 <= proposition && proposition < mapping.length ? mapping[proposition] : LiteralMapper.UNDEFINED;
+    }
+
+    public BitSet apply(BitSet labels) {
+        BitSet projected = new BitSet();
+        for (int i = labels.nextSetBit(0); i >= 0 && i < mapping.length; i = labels.nextSetBit(i + 1)) {
+            int index = mapping[i];
+            if (index != LiteralMapper.UNDEFINED) {
+                projected.set(index);
+            }
+        }
+        return projected;
+    }
+}
@@ -26,6 +26,7 @@ import java.util.*;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import javax.annotation.Nullable;
 
@@ -99,7 +100,7 @@ public final class DotWriter {
         }
         for (Object2IntMap.Entry<HistoryState<S>> entry : ids.object2IntEntrySet()) {
             SetMultimap<HistoryState<S>, Move> movesBySuccessor = HashMultimap.create();
-            game.transitions(entry.getKey())
+            game.allTransitions(entry.getKey())
                     .forEach(transition -> movesBySuccessor.put(transition.destination(), transition.move()));
             for (var moveEntry : movesBySuccessor.asMap().entrySet()) {
                 writer.append("HS_%d -> HS_%d [label=\"%s\"]\n".formatted(entry.getIntValue(),
@@ -226,12 +227,11 @@ public final class DotWriter {
         List<String> atomicPropositions = suspectGame.historyGame().concurrentGame().atomicPropositions();
 
         writer.append("digraph {\n");
-        Set<RunGraph.RunState<S>> loopStates = strategy.lasso().states(false).collect(Collectors.toSet());
+        var lasso = strategy.lasso();
 
-        Object2IntMap<RunGraph.RunState<S>> ids = new Object2IntOpenHashMap<>();
-        ids.defaultReturnValue(-1);
-        loopStates.forEach(runState -> ids.put(runState, ids.size()));
-        ids.forEach((runState, id) -> {
+        // The loop may visit a state several times, hence nodes are lasso positions
+        IntStream.range(0, lasso.size()).forEach(id -> {
+            RunGraph.RunState<S> runState = lasso.state(id);
             HistoryState<S> historyState = runState.historyState();
             String label = Stream.concat(Stream.concat(
                                     Stream.of(DotFormatted.toRecordString(toDotString(historyState.state()))),
@@ -243,24 +243,26 @@ public final class DotWriter {
                                                                     atomicPropositions)
                                                             .toString())))),
                             Stream.of(DotFormatted.toRecordString(
-                                    toDotString(runState.automatonState(), runGraph.automatonPropositions()))))
+                                    runGraph.automatonString(runState))))
                     .collect(Collectors.joining("|", "{", "}"));
             writer.append("S_%d [shape=record,label=\"%s\"]\n".formatted(id, label));
         });
-        ids.forEach((runState, id) -> {
-            Move move = strategy.moves().get(runState);
-            var historySuccessor = suspectGame.historyGame().transition(runState.historyState(), move).orElseThrow()
-                    .destination();
-            var runSuccessor = runGraph.successors(runState).stream()
-                    .filter(s -> s.historyState().equals(historySuccessor)).findAny().orElseThrow();
-
-            writer.append("S_%d -> S_%d [label=\"%s\"];\n".formatted(id, ids.getInt(runSuccessor), toDotString(move)));
+        IntStream.range(0, lasso.size()).forEach(id -> {
+            Move move = strategy.moves().get(id);
+            writer.append("S_%d -> S_%d [label=\"%s\"];\n".formatted(id, lasso.successor(id),
+                    moveClassString(suspectGame.historyGame(), lasso.state(id).historyState(), move)));
         });
 
         writer.append("}");
     }
 
-    public static <S> void writeSolution(GameSolution<S> solution,ConcurrentGame<S> inputGame, PrintStream writer) {
+    // The strategy only stores representative moves, list all moves of the concurrent game they stand for
+    private static <S> String moveClassString(HistoryGame<S> game, HistoryState<S> state, Move move) {
+        return game.equivalentMoves(state, move).stream().map(DotFormatted::toDotString).sorted()
+                .collect(Collectors.joining(", "));
+    }
+
+    public static <S> void writeSolution(GameSolution<S> solution, ConcurrentGame<S> inputGame, PrintStream writer) {
         var strategy = solution.strategy();
         var suspectGame = solution.suspectGame();
         var punishmentStrategy = solution.strategy().punishmentStrategy();
@@ -270,10 +272,11 @@ public final class DotWriter {
         List<String> atomicPropositions = suspectGame.historyGame().concurrentGame().atomicPropositions();
 
         writer.append("digraph {\n");
-        Set<RunGraph.RunState<S>> loopStates = lasso.states(false).collect(Collectors.toSet());
-        Set<PriorityState<S>> reachableGameStates = loopStates.stream().flatMap(runState -> punishmentStrategy
-                        .states(runState.historyState(), moves.get(runState)).stream()
-                        .filter(s -> !s.eve().historyState().equals(lasso.successor(runState).historyState())))
+        Set<PriorityState<S>> reachableGameStates = IntStream.range(0, lasso.size()).boxed()
+                .flatMap(position -> punishmentStrategy
+                        .states(lasso.state(position).historyState(), moves.get(position)).stream()
+                        .filter(s -> !s.eve().historyState()
+                                .equals(lasso.state(lasso.successor(position)).historyState())))
                 .collect(Collectors.toSet());
         Queue<PriorityState<S>> queue = new ArrayDeque<>(reachableGameStates);
         while (!queue.isEmpty()) {
@@ -285,14 +288,12 @@ public final class DotWriter {
             }
         }
 
-        Object2IntMap<RunGraph.RunState<S>> loopIds = new Object2IntOpenHashMap<>();
-        loopIds.defaultReturnValue(-1);
-        loopStates.forEach(run -> loopIds.put(run, loopIds.size()));
         Object2IntMap<PriorityState<S>> gameIds = new Object2IntOpenHashMap<>();
         gameIds.defaultReturnValue(-1);
         reachableGameStates.forEach(game -> gameIds.put(game, gameIds.size()));
 
-        loopIds.forEach((runState, id) -> {
+        IntStream.range(0, lasso.size()).forEach(id -> {
+            RunGraph.RunState<S> runState = lasso.state(id);
             HistoryState<S> historyState = runState.historyState();
             String label = Stream.concat(
                             Stream.concat(Stream.of(DotFormatted.toRecordString(toDotString(historyState.state()))),
@@ -306,7 +307,7 @@ public final class DotWriter {
                                                             historyState.goal(a),
                                                             atomicPropositions))))),
                             Stream.of(DotFormatted.toRecordString(
-                                    toDotString(runState.automatonState(), runGraph.automatonPropositions()))))
+                                    runGraph.automatonString(runState))))
                     .collect(Collectors.joining("|", "{", "}"));
             writer.append("HS_%d [shape=record,label=\"%s\"]\n".formatted(id, label));
         });
@@ -329,12 +330,14 @@ public final class DotWriter {
             }
         });
 
-        loopIds.forEach((runState, id) -> {
-            Move move = strategy.moves().get(runState);
-            writer.append("HS_%d -> HS_%d [label=\"%s\",penwidth=2];\n".formatted(id,
-                    loopIds.getInt(lasso.successor(runState)), toDotString(move)));
+        IntStream.range(0, lasso.size()).forEach(id -> {
+            RunGraph.RunState<S> runState = lasso.state(id);
+            Move move = strategy.moves().get(id);
+            writer.append("HS_%d -> HS_%d [label=\"%s\",penwidth=2];\n".formatted(id, lasso.successor(id),
+                    moveClassString(suspectGame.historyGame(), runState.historyState(), move)));
             punishmentStrategy.states(runState.historyState(), move).stream()
-                    .filter(s -> !s.eve().historyState().equals(lasso.successor(runState).historyState()))
+                    .filter(s -> !s.eve().historyState()
+                            .equals(lasso.state(lasso.successor(id)).historyState()))
                     .forEach(punishmentState -> {
                         // Get source and destination states from inputGame perspective
                         var sourceState = runState.historyState().state();
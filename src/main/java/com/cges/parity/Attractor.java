@@ -0,0 +1,14 @@
+package com.cges.parity;
+
+import java.util.BitSet;
+import java.util.function.IntPredicate;
+
+/** Attractor computation on an indexed parity game. */
+interface Attractor {
+    /**
+     * Extends the given set to the attractor of the player within the subgame. Vertices of the player which are
+     * attracted get the successor through which they are attracted as strategy, the strategy of the vertices of the
+     * set is kept.
+     */
+    void attract(IntPredicate subgame, BitSet set, int player, int[] strategy);
+}
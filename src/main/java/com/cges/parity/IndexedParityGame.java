@@ -0,0 +1,170 @@
+package com.cges.parity;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A parity game numbered once into flat arrays: vertices are ids {@code [0, size())}, successors and predecessors are
+ * stored in compressed rows. As for oink, the game is max parity, i.e. the largest priority occurring infinitely often
+ * determines the winner, and {@link Player#EVEN} is player 0.
+ */
+final class IndexedParityGame<S> {
+    private final List<S> states;
+    private final int[] priorities;
+    private final byte[] owners;
+    private final int[] offsets;
+    private final int[] targets;
+    private final int[] reverseOffsets;
+    private final int[] sources;
+    private final int maximumPriority;
+
+    private IndexedParityGame(List<S> states, int[] priorities, byte[] owners, int[] offsets, int[] targets) {
+        this.states = states;
+        this.priorities = priorities;
+        this.owners = owners;
+        this.offsets = offsets;
+        this.targets = targets;
+
+        int size = states.size();
+        reverseOffsets = new int[size + 1];
+        for (int target : targets) {
+            reverseOffsets[target + 1] += 1;
+        }
+        for (int vertex = 0; vertex < size; vertex++) {
+            reverseOffsets[vertex + 1] += reverseOffsets[vertex];
+        }
+        sources = new int[targets.length];
+        int[] fill = reverseOffsets.clone();
+        for (int vertex = 0; vertex < size; vertex++) {
+            for (int edge = offsets[vertex]; edge < offsets[vertex + 1]; edge++) {
+                sources[fill[targets[edge]]++] = vertex;
+            }
+        }
+        int maximum = 0;
+        for (int priority : priorities) {
+            maximum = Math.max(maximum, priority);
+        }
+        maximumPriority = maximum;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <S> IndexedParityGame<S> of(ParityGame<S> game) {
+        if (game instanceof SuspectParityGame<?> suspectParityGame) {
+            // Already numbered, the states are PriorityStates
+            return (IndexedParityGame<S>) of(suspectParityGame);
+        }
+        Object2IntMap<S> numbering = new Object2IntOpenHashMap<>();
+        numbering.defaultReturnValue(-1);
+        List<S> states = new ArrayList<>();
+        game.forEachState(state -> {
+            numbering.put(state, states.size());
+            states.add(state);
+        });
+
+        int[] priorities = new int[states.size()];
+        byte[] owners = new byte[states.size()];
+        int[] offsets = new int[states.size() + 1];
+        IntArrayList targets = new IntArrayList();
+        for (int vertex = 0; vertex < states.size(); vertex++) {
+            S state = states.get(vertex);
+            priorities[vertex] = game.priority(state);
+            owners[vertex] = (byte) game.owner(state).id();
+            offsets[vertex] = targets.size();
+            game.successors(state).forEach(successor -> {
+                int target = numbering.getInt(successor);
+                assert target >= 0 : "Successor %s is not a state of the game".formatted(successor);
+                targets.add(target);
+            });
+            assert targets.size() > offsets[vertex] : "State %s has no successors".formatted(state);
+        }
+        offsets[states.size()] = targets.size();
+        return new IndexedParityGame<>(states, priorities, owners, offsets, targets.toIntArray());
+    }
+
+    private static <S> IndexedParityGame<PriorityState<S>> of(SuspectParityGame<S> game) {
+        int size = game.size();
+        List<PriorityState<S>> states = new ArrayList<>(size);
+        int[] priorities = new int[size];
+        byte[] owners = new byte[size];
+        int[] offsets = new int[size + 1];
+        for (int vertex = 0; vertex < size; vertex++) {
+            states.add(game.state(vertex));
+            priorities[vertex] = game.priority(vertex);
+            owners[vertex] = (byte) game.owner(vertex).id();
+            offsets[vertex] = game.edgeStart(vertex);
+        }
+        offsets[size] = size == 0 ? 0 : game.edgeEnd(size - 1);
+        int[] targets = new int[offsets[size]];
+        for (int edge = 0; edge < targets.length; edge++) {
+            targets[edge] = game.target(edge);
+        }
+        return new IndexedParityGame<>(states, priorities, owners, offsets, targets);
+    }
+
+    int size() {
+        return priorities.length;
+    }
+
+    int priority(int vertex) {
+        return priorities[vertex];
+    }
+
+    int maximumPriority() {
+        return maximumPriority;
+    }
+
+    /** The id of the owner, see {@link Player#id()}. */
+    int owner(int vertex) {
+        return owners[vertex];
+    }
+
+    int edgeStart(int vertex) {
+        return offsets[vertex];
+    }
+
+    int edgeEnd(int vertex) {
+        return offsets[vertex + 1];
+    }
+
+    int target(int edge) {
+        return targets[edge];
+    }
+
+    int predecessorStart(int vertex) {
+        return reverseOffsets[vertex];
+    }
+
+    int predecessorEnd(int vertex) {
+        return reverseOffsets[vertex + 1];
+    }
+
+    int source(int predecessorEdge) {
+        return sources[predecessorEdge];
+    }
+
+    /**
+     * Translates a solution over ids back to the states, keeping the strategy of odd on the vertices it owns and wins,
+     * as reported by oink.
+     */
+    Solution<S> solution(BitSet oddWinning, int[] strategy) {
+        Set<S> winning = new HashSet<>(oddWinning.cardinality());
+        Map<S, S> oddStrategy = new HashMap<>();
+        for (int vertex = oddWinning.nextSetBit(0); vertex >= 0; vertex = oddWinning.nextSetBit(vertex + 1)) {
+            S state = states.get(vertex);
+            winning.add(state);
+            if (owners[vertex] == Player.ODD.id()) {
+                assert oddWinning.get(strategy[vertex]) : "Strategy of %s leaves the winning region".formatted(state);
+                oddStrategy.put(state, states.get(strategy[vertex]));
+            }
+        }
+        return new Solution<>(winning, oddStrategy);
+    }
+}
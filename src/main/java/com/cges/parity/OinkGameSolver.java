@@ -5,32 +5,36 @@ import static java.util.Objects.requireNonNull;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.common.util.concurrent.Uninterruptibles;
-import de.tum.in.naturals.map.Nat2ObjectDenseArrayMap;
-import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
-import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
-import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
-public final class OinkGameSolver {
+/**
+ * Solves parity games by an external oink process per call. The games are streamed to the process in pgsolver format
+ * while their states are numbered. Instances have no state, hence games may be solved concurrently.
+ */
+public final class OinkGameSolver implements ParityGameSolver {
     private record Indexed<S>(S object, int index) {
     }
 
@@ -55,33 +59,86 @@ public final class OinkGameSolver {
         }
     }
 
-    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
-                    .setThreadFactory(Executors.defaultThreadFactory()).setDaemon(true).build());
+    // Shared by all instances, a reader only waits for the output of its process
+    private static final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                    .setNameFormat("oink-reader-%d").setDaemon(true).build());
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // The solution as written by oink, strategy edges are stored as pairs of source and target
+    private record OinkOutput(IntArrayList oddWinning, IntArrayList strategy) {
+    }
+
+    // Writes the pgsolver format directly into a byte buffer, avoiding a string per number
+    private static final class GameWriter {
+        private final OutputStream stream;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position = 0;
+
+        GameWriter(OutputStream stream) {
+            this.stream = stream;
+        }
+
+        GameWriter text(String text) throws IOException {
+            for (int i = 0; i < text.length(); i++) {
+                character(text.charAt(i));
+            }
+            return this;
+        }
+
+        GameWriter character(char character) throws IOException {
+            if (position == buffer.length) {
+                flush();
+            }
+            buffer[position++] = (byte) character;
+            return this;
+        }
+
+        GameWriter number(int number) throws IOException {
+            assert number >= 0;
+            if (buffer.length - position < 10) {
+                flush();
+            }
+            int digits = 1;
+            for (int rest = number / 10; rest > 0; rest /= 10) {
+                digits += 1;
+            }
+            int rest = number;
+            for (int i = position + digits - 1; i >= position; i--) {
+                buffer[i] = (byte) ('0' + rest % 10);
+                rest /= 10;
+            }
+            position += digits;
+            return this;
+        }
+
+        void flush() throws IOException {
+            stream.write(buffer, 0, position);
+            position = 0;
+        }
+    }
 
     public OinkGameSolver() {
     }
 
+    @Override
     public <S> Solution<S> solve(ParityGame<S> game) {
-        Object2IntMap<S> oinkNumbering = new Object2IntOpenHashMap<>();
-        oinkNumbering.defaultReturnValue(-1);
-        List<S> reverseMapping = new ArrayList<>();
-        game.forEachState(s -> {
-            int id = oinkNumbering.size();
-            oinkNumbering.put(s, id);
-            reverseMapping.add(s);
-        });
-        Int2ObjectMap<IntSet> successorIds = new Nat2ObjectDenseArrayMap<>(128);
-        oinkNumbering.forEach((state, id) -> {
-            IntSet stateSuccessorIds = new IntOpenHashSet();
-            game.successors(state).mapToInt(oinkNumbering::getInt).forEach(stateSuccessorIds::add);
-            assert stateSuccessorIds.intStream().allMatch(i -> i >= 0);
-            successorIds.put(id.intValue(), stateSuccessorIds);
-        });
+        return solveAll(List.of(game)).get(0);
+    }
 
-        assert oinkNumbering.object2IntEntrySet().stream()
-                        .allMatch(entry -> entry.getKey().equals(reverseMapping.get(entry.getIntValue())));
-        assert IntStream.range(0, oinkNumbering.size()).allMatch(i -> game.successors(reverseMapping.get(i))
-                        .map(oinkNumbering::getInt).collect(Collectors.toSet()).equals(successorIds.get(i)));
+    /**
+     * Solves the games by a single oink run on their disjoint union, where the ids of each game are offset by the sizes
+     * of the games before it. For many small games, this saves the start-up of a process per game.
+     */
+    @Override
+    public <S> List<Solution<S>> solveAll(List<? extends ParityGame<S>> games) {
+        int[] offsets = new int[games.size() + 1];
+        for (int i = 0; i < games.size(); i++) {
+            offsets[i + 1] = offsets[i] + games.get(i).states().size();
+        }
+        int size = offsets[games.size()];
+        if (size == 0) {
+            return games.stream().map(game -> new Solution<S>(Set.of(), Map.of())).toList();
+        }
 
         ProcessBuilder oinkProcessBuilder = new ProcessBuilder(OINK_EXECUTION);
         oinkProcessBuilder.redirectErrorStream(true);
@@ -92,10 +149,10 @@ public final class OinkGameSolver {
             throw new OinkExecutionException("Oink process could not be started", e);
         }
 
-        Set<S> oddWinning = new HashSet<>();
-        Map<S, S> strategy = new HashMap<>();
-        List<String> oinkComments = new ArrayList<>();
-        var readingFuture = executor.<Void>submit(() -> {
+        Queue<String> oinkComments = new ConcurrentLinkedQueue<>();
+        var readingFuture = executor.submit(() -> {
+            IntArrayList oddWinning = new IntArrayList();
+            IntArrayList strategy = new IntArrayList();
             try (BufferedReader reader = new BufferedReader(new InputStreamReader(oinkProcess.getInputStream()))) {
                 Iterator<String[]> iterator = reader.lines().filter(line -> {
                     if (line.startsWith("[")) {
@@ -113,50 +170,112 @@ public final class OinkGameSolver {
                     int winner = Integer.parseInt(elements[1]);
                     if (winner == 1) {
                         int index = Integer.parseInt(elements[0]);
-                        S state = requireNonNull(reverseMapping.get(index));
-                        oddWinning.add(state);
+                        oddWinning.add(index);
                         if (elements.length == 3) {
-                            S previous = strategy.put(state,
-                                            requireNonNull(reverseMapping.get(Integer.parseInt(elements[2]))));
-                            assert previous == null;
+                            strategy.add(index);
+                            strategy.add(Integer.parseInt(elements[2]));
                         }
                     }
                 }
             }
-            return null;
+            return new OinkOutput(oddWinning, strategy);
         });
 
-        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(oinkProcess.getOutputStream()))) {
-            writer.append("parity ").append(String.valueOf(oinkNumbering.size())).append(";");
-            writer.newLine();
-            ListIterator<S> iterator = reverseMapping.listIterator();
-            while (iterator.hasNext()) {
-                int index = iterator.nextIndex();
-                var state = iterator.next();
-                writer.append(String.valueOf(index)).append(' ').append(String.valueOf(game.priority(state)))
-                                .append(' ').append(String.valueOf(game.owner(state).id()));
-                var successorIterator = successorIds.get(index).intIterator();
-                if (successorIterator.hasNext()) {
-                    writer.append(' ').append(String.valueOf(successorIterator.nextInt()));
-                    while (successorIterator.hasNext()) {
-                        writer.append(',').append(String.valueOf(successorIterator.nextInt()));
-                    }
-                }
-                writer.append(';');
-                writer.newLine();
+        List<List<S>> reverseMappings = new ArrayList<>(games.size());
+        try (OutputStream stream = oinkProcess.getOutputStream()) {
+            GameWriter writer = new GameWriter(stream);
+            writer.text("parity ").number(size).text(";\n");
+            for (int i = 0; i < games.size(); i++) {
+                reverseMappings.add(write(writer, games.get(i), offsets[i]));
             }
-        } catch (IOException e) {
+            writer.flush();
+        } catch (IOException | UncheckedIOException e) {
             throw new OinkExecutionException("Failed to write to oink, output: "
                             + oinkComments.stream().collect(Collectors.joining("\n", "\n", "")), e);
         }
 
+        OinkOutput output;
         try {
-            Uninterruptibles.getUninterruptibly(readingFuture);
+            output = Uninterruptibles.getUninterruptibly(readingFuture);
         } catch (ExecutionException e) {
             throw new OinkExecutionException("Failed to read from oink, output: "
                             + oinkComments.stream().collect(Collectors.joining("\n", "\n", "")), e);
         }
 
-        return new Solution<>(oddWinning, strategy);
+        List<Set<S>> oddWinning = new ArrayList<>(games.size());
+        List<Map<S, S>> strategies = new ArrayList<>(games.size());
+        for (int i = 0; i < games.size(); i++) {
+            oddWinning.add(new HashSet<>());
+            strategies.add(new HashMap<>());
+        }
+        output.oddWinning().forEach((int vertex) -> {
+            int game = gameOf(offsets, vertex);
+            oddWinning.get(game).add(requireNonNull(reverseMappings.get(game).get(vertex - offsets[game])));
+        });
+        for (int i = 0; i < output.strategy().size(); i += 2) {
+            int source = output.strategy().getInt(i);
+            int target = output.strategy().getInt(i + 1);
+            int game = gameOf(offsets, source);
+            assert gameOf(offsets, target) == game : "Strategy leaves the game";
+            List<S> reverseMapping = reverseMappings.get(game);
+            S previous = strategies.get(game).put(requireNonNull(reverseMapping.get(source - offsets[game])),
+                            requireNonNull(reverseMapping.get(target - offsets[game])));
+            assert previous == null;
+        }
+        return IntStream.range(0, games.size())
+                        .mapToObj(i -> new Solution<>(oddWinning.get(i), strategies.get(i))).toList();
+    }
+
+    // The game containing the id, i.e. the last game whose offset is at most the id
+    private static int gameOf(int[] offsets, int id) {
+        int low = 0;
+        int high = offsets.length - 2;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (offsets[middle] <= id) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    // Writes the lines of the game, numbering its states from the offset on, and returns the states by id
+    private static <S> List<S> write(GameWriter writer, ParityGame<S> game, int offset) {
+        // States are numbered while the game is written, the lines of pgsolver may come in any order
+        Object2IntMap<S> oinkNumbering = new Object2IntOpenHashMap<>();
+        oinkNumbering.defaultReturnValue(-1);
+        List<S> reverseMapping = new ArrayList<>();
+        ToIntFunction<S> numbering = state -> {
+            int id = oinkNumbering.getInt(state);
+            if (id == -1) {
+                id = reverseMapping.size();
+                oinkNumbering.put(state, id);
+                reverseMapping.add(state);
+            }
+            return offset + id;
+        };
+        IntArrayList successorIds = new IntArrayList();
+        game.forEachState(state -> {
+            successorIds.clear();
+            game.successors(state).mapToInt(numbering).forEach(successorIds::add);
+            int[] successors = successorIds.toIntArray();
+            Arrays.sort(successors);
+            try {
+                writer.number(numbering.applyAsInt(state)).character(' ').number(game.priority(state))
+                                .character(' ').number(game.owner(state).id());
+                for (int i = 0; i < successors.length; i++) {
+                    if (i == 0 || successors[i] != successors[i - 1]) {
+                        writer.character(i == 0 ? ' ' : ',').number(successors[i]);
+                    }
+                }
+                writer.character(';').character('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        assert reverseMapping.size() == game.states().size() : "Successors outside of the game";
+        return reverseMapping;
     }
 }
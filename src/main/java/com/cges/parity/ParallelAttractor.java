@@ -0,0 +1,135 @@
+package com.cges.parity;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntPredicate;
+
+/**
+ * Parallel attractor computation by a level-synchronous breadth-first search. The frontier of each level is split into
+ * chunks whose predecessors are processed by separate tasks. The attracted set is a bit set of atomic words, so each
+ * vertex is added by exactly one task, which also writes its strategy. The counters of the remaining successors of
+ * opponent vertices carry the stamp of the current computation in their upper half and are initialized lazily by the
+ * first task decrementing them. Instances may only be used by one computation at a time.
+ */
+final class ParallelAttractor implements Attractor {
+    private static final int CHUNK = 1 << 10;
+
+    private final IndexedParityGame<?> game;
+    private final ForkJoinPool pool;
+    private final AtomicLongArray counters;
+    private final AtomicLongArray words;
+    private int stamp = 0;
+
+    private record Computation(IntPredicate subgame, int player, int[] strategy, long stamp) {
+    }
+
+    private final class Level extends RecursiveTask<IntArrayList> {
+        private final Computation computation;
+        private final int[] frontier;
+        private final int from;
+        private final int to;
+
+        Level(Computation computation, int[] frontier, int from, int to) {
+            this.computation = computation;
+            this.frontier = frontier;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected IntArrayList compute() {
+            if (to - from > CHUNK) {
+                int middle = (from + to) >>> 1;
+                Level left = new Level(computation, frontier, from, middle);
+                left.fork();
+                IntArrayList attracted = new Level(computation, frontier, middle, to).compute();
+                IntArrayList leftAttracted = left.join();
+                leftAttracted.addAll(attracted);
+                return leftAttracted;
+            }
+            IntArrayList attracted = new IntArrayList();
+            for (int i = from; i < to; i++) {
+                int vertex = frontier[i];
+                for (int edge = game.predecessorStart(vertex); edge < game.predecessorEnd(vertex); edge++) {
+                    int predecessor = game.source(edge);
+                    if (contains(predecessor) || !computation.subgame().test(predecessor)) {
+                        continue;
+                    }
+                    if (game.owner(predecessor) == computation.player()) {
+                        if (add(predecessor)) {
+                            computation.strategy()[predecessor] = vertex;
+                            attracted.add(predecessor);
+                        }
+                    } else if (decrement(predecessor, computation) == 0 && add(predecessor)) {
+                        attracted.add(predecessor);
+                    }
+                }
+            }
+            return attracted;
+        }
+    }
+
+    ParallelAttractor(IndexedParityGame<?> game, ForkJoinPool pool) {
+        this.game = game;
+        this.pool = pool;
+        this.counters = new AtomicLongArray(game.size());
+        this.words = new AtomicLongArray((game.size() + 63) / 64);
+    }
+
+    @Override
+    public void attract(IntPredicate subgame, BitSet set, int player, int[] strategy) {
+        stamp += 1;
+        var computation = new Computation(subgame, player, strategy, stamp);
+        long[] initial = set.toLongArray();
+        for (int i = 0; i < initial.length; i++) {
+            words.set(i, initial[i]);
+        }
+
+        int[] frontier = set.stream().toArray();
+        while (frontier.length > 0) {
+            Level level = new Level(computation, frontier, 0, frontier.length);
+            frontier = (frontier.length > CHUNK ? pool.invoke(level) : level.compute()).toIntArray();
+        }
+
+        long[] attracted = new long[words.length()];
+        for (int i = 0; i < attracted.length; i++) {
+            attracted[i] = words.getAndSet(i, 0L);
+        }
+        set.or(BitSet.valueOf(attracted));
+    }
+
+    private boolean contains(int vertex) {
+        return (words.get(vertex >>> 6) & (1L << vertex)) != 0;
+    }
+
+    // Returns true if the vertex was added by this call
+    private boolean add(int vertex) {
+        long mask = 1L << vertex;
+        return (words.getAndAccumulate(vertex >>> 6, mask, (word, bit) -> word | bit) & mask) == 0;
+    }
+
+    // Decrements the remaining successors of the vertex, returns the new count
+    private int decrement(int vertex, Computation computation) {
+        while (true) {
+            long current = counters.get(vertex);
+            int count = (current >>> 32) == computation.stamp() ? (int) current : successorsIn(vertex, computation);
+            long next = (computation.stamp() << 32) | (count - 1);
+            if (counters.compareAndSet(vertex, current, next)) {
+                return count - 1;
+            }
+        }
+    }
+
+    private int successorsIn(int vertex, Computation computation) {
+        int count = 0;
+        for (int edge = game.edgeStart(vertex); edge < game.edgeEnd(vertex); edge++) {
+            if (computation.subgame().test(game.target(edge))) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+}
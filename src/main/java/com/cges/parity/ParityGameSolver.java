@@ -1,5 +1,35 @@
 package com.cges.parity;
 
-public interface ParityGameSolver<S> {
-    Solution<S> solve(ParityGame<S> parityGame);
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/** Solves parity games, computing the winning region of odd together with a strategy for it. */
+public interface ParityGameSolver {
+    /** The available solvers. */
+    enum Backend {
+        /** External oink process, see {@link OinkGameSolver}. */
+        OINK,
+        /** In-process Zielonka recursive algorithm, see {@link ZielonkaSolver}. */
+        ZIELONKA,
+        /** {@link #ZIELONKA} with parallel attractor computation on large games. */
+        PARALLEL_ZIELONKA,
+        /** In-process priority promotion, see {@link PriorityPromotionSolver}. */
+        PRIORITY_PROMOTION;
+
+        public ParityGameSolver create() {
+            return switch (this) {
+                case OINK -> new OinkGameSolver();
+                case ZIELONKA -> new ZielonkaSolver();
+                case PARALLEL_ZIELONKA -> new ZielonkaSolver(ForkJoinPool.commonPool());
+                case PRIORITY_PROMOTION -> new PriorityPromotionSolver();
+            };
+        }
+    }
+
+    <S> Solution<S> solve(ParityGame<S> parityGame);
+
+    /** Solves several games at once, returning their solutions in the same order. */
+    default <S> List<Solution<S>> solveAll(List<? extends ParityGame<S>> parityGames) {
+        return parityGames.stream().map(this::solve).toList();
+    }
 }
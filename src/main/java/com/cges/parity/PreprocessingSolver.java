@@ -0,0 +1,384 @@
+package com.cges.parity;
+
+import com.google.common.collect.ContiguousSet;
+import com.google.common.collect.DiscreteDomain;
+import com.google.common.collect.Range;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Simplifies parity games before passing them to another solver, and maps the solution back to the original game.
+ * The simplifications are applied in order:
+ * <ol>
+ *   <li>Vertices with a self-loop whose priority is won by the owner, or which is the only successor, are decided, and
+ *   so are their attractors.</li>
+ *   <li>Self-loops losing for the owner and edges into the region won by the opponent of the owner are removed. The
+ *   owner of a vertex which is left without successors loses it, which is again propagated by attractors, until no
+ *   such dead end remains.</li>
+ *   <li>Vertices on no cycle of the remaining game are seen at most once in a play, their priority is reset to 0.
+ *   Rather than solving such trivial strongly connected components separately, this lets them be collapsed with
+ *   their neighbours and compressed away in the following steps.</li>
+ *   <li>Vertices with identical owner, priority and successors are collapsed, for a bounded number of rounds since
+ *   each round may enable further ones.</li>
+ *   <li>Priorities are compressed, i.e. renumbered to consecutive values of alternating parity.</li>
+ * </ol>
+ *
+ * <p>With assertions enabled, the winning regions are compared with those of the delegate on the original games and
+ * the strategies mapped back are checked to stay in the winning region of odd.</p>
+ */
+public final class PreprocessingSolver implements ParityGameSolver {
+    private static final Logger logger = Logger.getLogger(PreprocessingSolver.class.getName());
+    private static final int MERGE_ROUNDS = 16;
+
+    private final ParityGameSolver delegate;
+
+    public PreprocessingSolver(ParityGameSolver delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public <S> Solution<S> solve(ParityGame<S> parityGame) {
+        return solveAll(List.of(parityGame)).get(0);
+    }
+
+    @Override
+    public <S> List<Solution<S>> solveAll(List<? extends ParityGame<S>> parityGames) {
+        List<Reduction<S>> reductions = parityGames.stream().map(IndexedParityGame::of).map(Reduction::new).toList();
+        List<Solution<Integer>> solutions = delegate.solveAll(reductions.stream().map(Reduction::quotient).toList());
+        List<Solution<S>> results = IntStream.range(0, reductions.size())
+                        .mapToObj(i -> reductions.get(i).solution(solutions.get(i))).toList();
+        assert agreesWithDelegate(parityGames, results) : "Preprocessing changed the solution";
+        return results;
+    }
+
+    private <S> boolean agreesWithDelegate(List<? extends ParityGame<S>> parityGames, List<Solution<S>> results) {
+        List<Solution<S>> expected = delegate.solveAll(parityGames);
+        for (int i = 0; i < parityGames.size(); i++) {
+            ParityGame<S> game = parityGames.get(i);
+            Solution<S> result = results.get(i);
+            if (!result.oddWinning().equals(expected.get(i).oddWinning())) {
+                return false;
+            }
+            for (S state : result.oddWinning()) {
+                if (game.owner(state) == Player.ODD) {
+                    S successor = result.oddStrategy().get(state);
+                    if (successor == null || !result.oddWinning().contains(successor)
+                                    || game.successors(state).noneMatch(successor::equals)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    // The simplified game, whose vertices are the representatives of the collapsed classes
+    private record Quotient(int[] priorities, byte[] owners, int[] offsets, int[] targets)
+                    implements ParityGame<Integer> {
+        @Override
+        public Set<Integer> states() {
+            return ContiguousSet.create(Range.closedOpen(0, priorities.length), DiscreteDomain.integers());
+        }
+
+        @Override
+        public Stream<Integer> successors(Integer state) {
+            return IntStream.range(offsets[state], offsets[state + 1]).mapToObj(edge -> targets[edge]);
+        }
+
+        @Override
+        public int priority(Integer state) {
+            return priorities[state];
+        }
+
+        @Override
+        public Player owner(Integer state) {
+            return owners[state] == Player.ODD.id() ? Player.ODD : Player.EVEN;
+        }
+    }
+
+    private record Signature(int owner, int priority, IntArrayList successors) {
+    }
+
+    private static final class Reduction<S> {
+        private final IndexedParityGame<S> game;
+        private final BitSet[] decided = {new BitSet(), new BitSet()};
+        private final int[] strategy;
+        private final BitSet undecided = new BitSet();
+        // Remaining successors of the undecided vertices, in compressed rows over the original ids
+        private final int[] offsets;
+        private final IntArrayList targets = new IntArrayList();
+        private final int[] priorities;
+        private final int[] representative;
+        private final int[] quotientIds;
+        private final Quotient quotient;
+
+        Reduction(IndexedParityGame<S> game) {
+            this.game = game;
+            int size = game.size();
+            this.strategy = new int[size];
+            this.offsets = new int[size + 1];
+            this.priorities = new int[size];
+            this.representative = new int[size];
+            this.quotientIds = new int[size];
+
+            decideSelfLoops();
+            removeDeadEnds();
+            for (int vertex = undecided.nextSetBit(0); vertex >= 0; vertex = undecided.nextSetBit(vertex + 1)) {
+                priorities[vertex] = game.priority(vertex);
+                representative[vertex] = vertex;
+            }
+            resetTransientPriorities();
+            collapse();
+            quotient = buildQuotient();
+            logger.log(Level.FINE, "Preprocessing reduced parity game from {0} to {1} vertices",
+                            new Object[]{size, quotient.priorities().length});
+        }
+
+        Quotient quotient() {
+            return quotient;
+        }
+
+        private void decideSelfLoops() {
+            for (int vertex = 0; vertex < game.size(); vertex++) {
+                boolean selfLoop = false;
+                boolean otherSuccessor = false;
+                for (int edge = game.edgeStart(vertex); edge < game.edgeEnd(vertex); edge++) {
+                    if (game.target(edge) == vertex) {
+                        selfLoop = true;
+                    } else {
+                        otherSuccessor = true;
+                    }
+                }
+                int parity = game.priority(vertex) % 2;
+                if (selfLoop && (!otherSuccessor || game.owner(vertex) == parity)) {
+                    decided[parity].set(vertex);
+                    strategy[vertex] = vertex;
+                }
+            }
+        }
+
+        // Attracts to the decided regions and removes dead ends until all undecided vertices have successors left
+        private void removeDeadEnds() {
+            Attractor attractor = new SequentialAttractor(game);
+            undecided.set(0, game.size());
+            while (true) {
+                for (int player = 0; player < 2; player++) {
+                    // Only the new vertices, edges into earlier regions are not counted by the attractor
+                    BitSet attracted = (BitSet) decided[player].clone();
+                    attracted.and(undecided);
+                    attractor.attract(undecided::get, attracted, player, strategy);
+                    decided[player].or(attracted);
+                    undecided.andNot(attracted);
+                }
+
+                targets.clear();
+                boolean deadEnd = false;
+                for (int vertex = 0; vertex < game.size(); vertex++) {
+                    offsets[vertex] = targets.size();
+                    if (!undecided.get(vertex)) {
+                        continue;
+                    }
+                    for (int edge = game.edgeStart(vertex); edge < game.edgeEnd(vertex); edge++) {
+                        int target = game.target(edge);
+                        if (target != vertex && undecided.get(target)) {
+                            targets.add(target);
+                        }
+                    }
+                    if (targets.size() == offsets[vertex]) {
+                        decided[1 - game.owner(vertex)].set(vertex);
+                        deadEnd = true;
+                    }
+                }
+                offsets[game.size()] = targets.size();
+                if (!deadEnd) {
+                    return;
+                }
+            }
+        }
+
+        private void resetTransientPriorities() {
+            BitSet cyclic = cyclicVertices();
+            for (int vertex = undecided.nextSetBit(0); vertex >= 0; vertex = undecided.nextSetBit(vertex + 1)) {
+                if (!cyclic.get(vertex)) {
+                    priorities[vertex] = 0;
+                }
+            }
+        }
+
+        // Iterative Tarjan over the remaining edges, returns the vertices of SCCs with at least two vertices
+        private BitSet cyclicVertices() {
+            int size = game.size();
+            int[] index = new int[size];
+            int[] lowLink = new int[size];
+            int[] edgeCursor = new int[size];
+            Arrays.fill(index, -1);
+            BitSet onStack = new BitSet();
+            BitSet cyclic = new BitSet();
+            IntArrayList stack = new IntArrayList();
+            IntArrayList callStack = new IntArrayList();
+            int counter = 0;
+            for (int root = undecided.nextSetBit(0); root >= 0; root = undecided.nextSetBit(root + 1)) {
+                if (index[root] != -1) {
+                    continue;
+                }
+                callStack.add(root);
+                index[root] = counter;
+                lowLink[root] = counter;
+                counter += 1;
+                edgeCursor[root] = offsets[root];
+                stack.add(root);
+                onStack.set(root);
+                while (!callStack.isEmpty()) {
+                    int vertex = callStack.getInt(callStack.size() - 1);
+                    if (edgeCursor[vertex] < offsets[vertex + 1]) {
+                        int successor = targets.getInt(edgeCursor[vertex]++);
+                        if (index[successor] == -1) {
+                            index[successor] = counter;
+                            lowLink[successor] = counter;
+                            counter += 1;
+                            edgeCursor[successor] = offsets[successor];
+                            stack.add(successor);
+                            onStack.set(successor);
+                            callStack.add(successor);
+                        } else if (onStack.get(successor)) {
+                            lowLink[vertex] = Math.min(lowLink[vertex], index[successor]);
+                        }
+                        continue;
+                    }
+                    callStack.removeInt(callStack.size() - 1);
+                    if (!callStack.isEmpty()) {
+                        int parent = callStack.getInt(callStack.size() - 1);
+                        lowLink[parent] = Math.min(lowLink[parent], lowLink[vertex]);
+                    }
+                    if (lowLink[vertex] == index[vertex]) {
+                        int top = stack.removeInt(stack.size() - 1);
+                        onStack.clear(top);
+                        if (top != vertex) {
+                            cyclic.set(top);
+                            cyclic.set(vertex);
+                            while (top != vertex) {
+                                top = stack.removeInt(stack.size() - 1);
+                                onStack.clear(top);
+                                cyclic.set(top);
+                            }
+                        }
+                    }
+                }
+            }
+            return cyclic;
+        }
+
+        private void collapse() {
+            for (int round = 0; round < MERGE_ROUNDS; round++) {
+                Map<Signature, Integer> classes = new HashMap<>();
+                boolean merged = false;
+                for (int vertex = undecided.nextSetBit(0); vertex >= 0; vertex = undecided.nextSetBit(vertex + 1)) {
+                    if (representative[vertex] != vertex) {
+                        continue;
+                    }
+                    Integer existing = classes.putIfAbsent(new Signature(game.owner(vertex), priorities[vertex],
+                                    representativeSuccessors(vertex)), vertex);
+                    if (existing != null) {
+                        representative[vertex] = existing;
+                        merged = true;
+                    }
+                }
+                if (!merged) {
+                    return;
+                }
+                // Representatives are the first vertex of their class, hence were not merged themselves
+                for (int vertex = undecided.nextSetBit(0); vertex >= 0; vertex = undecided.nextSetBit(vertex + 1)) {
+                    representative[vertex] = representative[representative[vertex]];
+                }
+            }
+        }
+
+        // The sorted and distinct representatives of the successors
+        private IntArrayList representativeSuccessors(int vertex) {
+            int[] successors = new int[offsets[vertex + 1] - offsets[vertex]];
+            for (int i = 0; i < successors.length; i++) {
+                successors[i] = representative[targets.getInt(offsets[vertex] + i)];
+            }
+            Arrays.sort(successors);
+            IntArrayList distinct = new IntArrayList(successors.length);
+            for (int i = 0; i < successors.length; i++) {
+                if (i == 0 || successors[i] != successors[i - 1]) {
+                    distinct.add(successors[i]);
+                }
+            }
+            return distinct;
+        }
+
+        private Quotient buildQuotient() {
+            IntArrayList vertices = new IntArrayList();
+            for (int vertex = undecided.nextSetBit(0); vertex >= 0; vertex = undecided.nextSetBit(vertex + 1)) {
+                if (representative[vertex] == vertex) {
+                    quotientIds[vertex] = vertices.size();
+                    vertices.add(vertex);
+                }
+            }
+
+            // Consecutive priorities of the same parity are merged, keeping the parity of the smallest priority
+            boolean[] occurring = new boolean[game.maximumPriority() + 1];
+            vertices.forEach((int vertex) -> occurring[priorities[vertex]] = true);
+            int[] compressed = new int[occurring.length];
+            int current = -1;
+            for (int priority = 0; priority < occurring.length; priority++) {
+                if (occurring[priority]) {
+                    if (current == -1) {
+                        current = priority % 2;
+                    } else if (current % 2 != priority % 2) {
+                        current += 1;
+                    }
+                    compressed[priority] = current;
+                }
+            }
+
+            int[] quotientPriorities = new int[vertices.size()];
+            byte[] quotientOwners = new byte[vertices.size()];
+            int[] quotientOffsets = new int[vertices.size() + 1];
+            IntArrayList quotientTargets = new IntArrayList();
+            for (int id = 0; id < vertices.size(); id++) {
+                int vertex = vertices.getInt(id);
+                quotientPriorities[id] = compressed[priorities[vertex]];
+                quotientOwners[id] = (byte) game.owner(vertex);
+                quotientOffsets[id] = quotientTargets.size();
+                representativeSuccessors(vertex)
+                                .forEach((int successor) -> quotientTargets.add(quotientIds[successor]));
+            }
+            quotientOffsets[vertices.size()] = quotientTargets.size();
+            return new Quotient(quotientPriorities, quotientOwners, quotientOffsets, quotientTargets.toIntArray());
+        }
+
+        Solution<S> solution(Solution<Integer> quotientSolution) {
+            BitSet oddWinning = (BitSet) decided[Player.ODD.id()].clone();
+            for (int vertex = undecided.nextSetBit(0); vertex >= 0; vertex = undecided.nextSetBit(vertex + 1)) {
+                int id = quotientIds[representative[vertex]];
+                if (!quotientSolution.oddWinning().contains(id)) {
+                    continue;
+                }
+                oddWinning.set(vertex);
+                if (game.owner(vertex) == Player.ODD.id()) {
+                    // The successors of the vertex and its representative agree up to the representatives
+                    int target = quotientSolution.oddStrategy().get(id);
+                    for (int edge = offsets[vertex]; edge < offsets[vertex + 1]; edge++) {
+                        if (quotientIds[representative[targets.getInt(edge)]] == target) {
+                            strategy[vertex] = targets.getInt(edge);
+                            break;
+                        }
+                    }
+                }
+            }
+            return game.solution(oddWinning, strategy);
+        }
+    }
+}
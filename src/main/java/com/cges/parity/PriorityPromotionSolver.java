@@ -0,0 +1,151 @@
+package com.cges.parity;
+
+import java.util.BitSet;
+import java.util.function.IntPredicate;
+
+/**
+ * Priority promotion (Benerecetti, Dell'Erba and Mogavero) on an {@link IndexedParityGame}. Every vertex is assigned a
+ * region, initially its priority. Going down from the largest priority p, the region of p is the attractor of its
+ * player a to the vertices of region p, within the vertices of region at most p. If the opponent can leave the region
+ * to a lower region or a cannot stay in it, the next lower region is processed. If the opponent cannot leave the
+ * region at all, it is a dominion of a and removed from the game together with its attractor. Otherwise, the opponent
+ * can only escape to higher regions and the region is promoted to the lowest of them, resetting all regions below.
+ */
+public final class PriorityPromotionSolver implements ParityGameSolver {
+    @Override
+    public <S> Solution<S> solve(ParityGame<S> parityGame) {
+        IndexedParityGame<S> game = IndexedParityGame.of(parityGame);
+        var solver = new Instance(game);
+        solver.solve();
+        assert solver.winning[Player.ODD.id()].equals(ZielonkaSolver.oddWinning(game))
+                        : "Priority promotion and Zielonka disagree";
+        return game.solution(solver.winning[Player.ODD.id()], solver.strategy);
+    }
+
+    /** The winning region of odd. Used to cross-check the other solvers. */
+    static BitSet oddWinning(IndexedParityGame<?> game) {
+        var solver = new Instance(game);
+        solver.solve();
+        return solver.winning[Player.ODD.id()];
+    }
+
+    private static final class Instance {
+        private final IndexedParityGame<?> game;
+        private final Attractor attractor;
+        private final int[] region;
+        private final BitSet remaining;
+        final int[] strategy;
+        final BitSet[] winning = {new BitSet(), new BitSet()};
+
+        Instance(IndexedParityGame<?> game) {
+            this.game = game;
+            this.attractor = new SequentialAttractor(game);
+            this.region = new int[game.size()];
+            this.strategy = new int[game.size()];
+            this.remaining = new BitSet(game.size());
+            remaining.set(0, game.size());
+        }
+
+        void solve() {
+            while (!remaining.isEmpty()) {
+                int top = -1;
+                for (int vertex = remaining.nextSetBit(0); vertex >= 0; vertex = remaining.nextSetBit(vertex + 1)) {
+                    region[vertex] = game.priority(vertex);
+                    strategy[vertex] = -1;
+                    top = Math.max(top, region[vertex]);
+                }
+                searchDominion(top);
+            }
+        }
+
+        // Promotes regions until a dominion is found, which is then removed from the game
+        private void searchDominion(int top) {
+            int priority = top;
+            while (true) {
+                int player = priority % 2;
+                int current = priority;
+                IntPredicate subgame = vertex -> remaining.get(vertex) && region[vertex] <= current;
+
+                BitSet set = new BitSet();
+                for (int vertex = remaining.nextSetBit(0); vertex >= 0; vertex = remaining.nextSetBit(vertex + 1)) {
+                    if (region[vertex] == priority) {
+                        set.set(vertex);
+                    }
+                }
+                attractor.attract(subgame, set, player, strategy);
+                for (int vertex = set.nextSetBit(0); vertex >= 0; vertex = set.nextSetBit(vertex + 1)) {
+                    region[vertex] = priority;
+                }
+
+                int escape = escape(set, priority, player);
+                if (escape == -1) {
+                    // The region is open in the subgame, continue with the next lower region
+                    int next = -1;
+                    for (int vertex = remaining.nextSetBit(0); vertex >= 0;
+                                    vertex = remaining.nextSetBit(vertex + 1)) {
+                        if (region[vertex] < priority) {
+                            next = Math.max(next, region[vertex]);
+                        }
+                    }
+                    assert next >= 0;
+                    priority = next;
+                } else if (escape == Integer.MAX_VALUE) {
+                    attractor.attract(remaining::get, set, player, strategy);
+                    winning[player].or(set);
+                    remaining.andNot(set);
+                    return;
+                } else {
+                    for (int vertex = remaining.nextSetBit(0); vertex >= 0;
+                                    vertex = remaining.nextSetBit(vertex + 1)) {
+                        if (set.get(vertex)) {
+                            region[vertex] = escape;
+                        } else if (region[vertex] < escape) {
+                            region[vertex] = game.priority(vertex);
+                            strategy[vertex] = -1;
+                        }
+                    }
+                    priority = escape;
+                }
+            }
+        }
+
+        /**
+         * Returns -1 if the region is open in its subgame, the lowest region the opponent can escape to, or
+         * {@link Integer#MAX_VALUE} if the opponent cannot leave the region. For a closed region, the strategy of the
+         * player is fixed to stay in the region. Strategies are reset to -1 together with the regions, so a strategy
+         * which is set always is an edge.
+         */
+        private int escape(BitSet set, int priority, int player) {
+            int escape = Integer.MAX_VALUE;
+            for (int vertex = set.nextSetBit(0); vertex >= 0; vertex = set.nextSetBit(vertex + 1)) {
+                if (game.owner(vertex) == player) {
+                    if (strategy[vertex] == -1 || !set.get(strategy[vertex])) {
+                        int successor = -1;
+                        for (int edge = game.edgeStart(vertex); edge < game.edgeEnd(vertex); edge++) {
+                            if (set.get(game.target(edge))) {
+                                successor = game.target(edge);
+                                break;
+                            }
+                        }
+                        if (successor == -1) {
+                            return -1;
+                        }
+                        strategy[vertex] = successor;
+                    }
+                } else {
+                    for (int edge = game.edgeStart(vertex); edge < game.edgeEnd(vertex); edge++) {
+                        int successor = game.target(edge);
+                        if (!remaining.get(successor) || set.get(successor)) {
+                            continue;
+                        }
+                        if (region[successor] <= priority) {
+                            return -1;
+                        }
+                        escape = Math.min(escape, region[successor]);
+                    }
+                }
+            }
+            return escape;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.cges.parity;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import java.util.BitSet;
+import java.util.function.IntPredicate;
+
+/**
+ * Sequential attractor computation by a breadth-first search over the predecessors. The counters of the remaining
+ * successors of opponent vertices are initialized lazily, marked with the stamp of the current computation, so that no
+ * array has to be cleared per call. Instances are not thread-safe.
+ */
+final class SequentialAttractor implements Attractor {
+    private final IndexedParityGame<?> game;
+    private final int[] remaining;
+    private final int[] stamps;
+    private final IntArrayList queue = new IntArrayList();
+    private int stamp = 0;
+
+    SequentialAttractor(IndexedParityGame<?> game) {
+        this.game = game;
+        this.remaining = new int[game.size()];
+        this.stamps = new int[game.size()];
+    }
+
+    @Override
+    public void attract(IntPredicate subgame, BitSet set, int player, int[] strategy) {
+        stamp += 1;
+        queue.clear();
+        for (int vertex = set.nextSetBit(0); vertex >= 0; vertex = set.nextSetBit(vertex + 1)) {
+            queue.add(vertex);
+        }
+        for (int head = 0; head < queue.size(); head++) {
+            int vertex = queue.getInt(head);
+            for (int edge = game.predecessorStart(vertex); edge < game.predecessorEnd(vertex); edge++) {
+                int predecessor = game.source(edge);
+                if (set.get(predecessor) || !subgame.test(predecessor)) {
+                    continue;
+                }
+                if (game.owner(predecessor) == player) {
+                    strategy[predecessor] = vertex;
+                } else {
+                    if (stamps[predecessor] != stamp) {
+                        stamps[predecessor] = stamp;
+                        remaining[predecessor] = successorsIn(predecessor, subgame);
+                    }
+                    remaining[predecessor] -= 1;
+                    if (remaining[predecessor] > 0) {
+                        continue;
+                    }
+                }
+                set.set(predecessor);
+                queue.add(predecessor);
+            }
+        }
+    }
+
+    private int successorsIn(int vertex, IntPredicate subgame) {
+        int count = 0;
+        for (int edge = game.edgeStart(vertex); edge < game.edgeEnd(vertex); edge++) {
+            if (subgame.test(game.target(edge))) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+}
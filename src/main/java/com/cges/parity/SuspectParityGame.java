@@ -6,18 +6,17 @@ import com.cges.graph.HistoryGame;
 import com.cges.graph.SuspectGame;
 import com.cges.graph.SuspectGame.EveState;
 import com.cges.model.Agent;
+import com.cges.model.ConcurrentGame;
+import com.cges.model.LabelProjection;
 import com.cges.model.Move;
-import com.cges.model.Transition;
-import com.google.common.collect.ImmutableSetMultimap;
-import com.google.common.collect.ImmutableTable;
-import com.google.common.collect.SetMultimap;
-import com.google.common.collect.Table;
-import de.tum.in.naturals.Indices;
-import de.tum.in.naturals.bitset.BitSets;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
-import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -25,20 +24,34 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Queue;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.function.ToIntFunction;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
+import javax.annotation.Nullable;
 import owl.automaton.Automaton;
 import owl.automaton.acceptance.ParityAcceptance;
 import owl.automaton.edge.Edge;
 
+/**
+ * The parity game of a deviation goal over the suspect game. The vertices are numbered while the game is explored and
+ * the game is stored in flat arrays, the successors in compressed rows and the owners as bit set, together with the
+ * list of the states by id.
+ */
 public final class SuspectParityGame<S> implements ParityGame<PriorityState<S>> {
-    private final SetMultimap<HistoryGame.HistoryState<S>, NonDeviationState<S>> historyStateMap;
-    private final Table<NonDeviationState<S>, Move, Set<PriorityState<S>>> deviationSuccessors;
-    private final SetMultimap<PriorityState<S>, PriorityState<S>> successors;
+    private final List<PriorityState<S>> states;
+    private final Object2IntMap<PriorityState<S>> ids;
+    private final int[] priorities;
+    private final BitSet eveVertices;
+    private final int[] offsets;
+    private final int[] targets;
+    // The deviation successors of all non-deviation states of a history state, by proposed move
+    private final Map<HistoryGame.HistoryState<S>, Map<Move, int[]>> deviationStates;
 
-    private SuspectParityGame(SuspectGame<S> suspectGame, EveState<S> initialState,
-                    Automaton<Object, ParityAcceptance> dpa) {
+    private SuspectParityGame(SuspectGame<S> suspectGame, EveState<S> initialState, @Nullable Move proposedMove,
+                    Automaton<Object, ParityAcceptance> dpa, LabelProjection labelProjection,
+                    Object2IntMap<Agent> agentPropositions) {
         assert !dpa.acceptance().parity().max();
 
         // We have a min even objective and want max + let eve be odd player
@@ -49,106 +62,163 @@ public final class SuspectParityGame<S> implements ParityGame<PriorityState<S>>
             maximumPriority += 1;
         }
 
-        List<String> propositions = dpa.atomicPropositions();
-        Object2IntMap<String> propositionIndex = Indices.ids(propositions);
-        propositionIndex.defaultReturnValue(-1);
-        Map<S, BitSet> gameStateLabelCache = new HashMap<>();
-        Function<S, BitSet> gameStateLabels = s -> BitSets.copyOf(gameStateLabelCache.computeIfAbsent(s, state -> {
-            BitSet set = new BitSet();
-            suspectGame.historyGame().concurrentGame().labels(state).stream().mapToInt(propositionIndex::getInt)
-                            .filter(i -> i >= 0).forEach(set::set);
+        ConcurrentGame<S> concurrentGame = suspectGame.historyGame().concurrentGame();
+        Function<EveState<S>, BitSet> stateLabels = eveState -> {
+            BitSet set = labelProjection.apply(concurrentGame.labelBits(eveState.gameState()));
+            for (Agent suspect : eveState.suspects()) {
+                int index = labelProjection.index(agentPropositions.getInt(suspect));
+                if (index >= 0) {
+                    set.set(index);
+                }
+            }
             return set;
-        }));
+        };
 
         Set<Agent> initialSuspects = initialState.suspects();
-        BitSet allSuspectsLabel = new BitSet();
-        initialSuspects.stream().map(Agent::name).mapToInt(propositionIndex::getInt).filter(i -> i >= 0)
-                        .forEach(allSuspectsLabel::set);
-
         HistoryGame<S> historyGame = suspectGame.historyGame();
+        Object2IntOpenHashMap<PriorityState<S>> ids = new Object2IntOpenHashMap<>();
+        ids.defaultReturnValue(-1);
+        List<PriorityState<S>> states = new ArrayList<>();
+        ToIntFunction<PriorityState<S>> numbering = state -> {
+            int id = ids.getInt(state);
+            if (id == -1) {
+                id = states.size();
+                ids.put(state, id);
+                states.add(state);
+            }
+            return id;
+        };
+
         Set<NonDeviationState<S>> nonDeviationStates = new HashSet<>(
-                        List.of(new NonDeviationState<>(historyGame.initialState(), dpa.initialState())));
+                        List.of(new NonDeviationState<>(initialState.historyState(), dpa.initialState())));
         Queue<NonDeviationState<S>> nonDeviationQueue = new ArrayDeque<>(nonDeviationStates);
-        ImmutableSetMultimap.Builder<HistoryGame.HistoryState<S>, NonDeviationState<S>> historyStateMap = ImmutableSetMultimap
-                        .builder();
-        ImmutableTable.Builder<NonDeviationState<S>, Move, Set<PriorityState<S>>> deviationSuccessors = ImmutableTable
-                        .builder();
+        Map<HistoryGame.HistoryState<S>, Map<Move, IntArrayList>> deviations = new HashMap<>();
 
         while (!nonDeviationQueue.isEmpty()) {
             var current = nonDeviationQueue.poll();
-            historyStateMap.put(current.gameState(), current);
+            Map<Move, IntArrayList> moveDeviations = deviations.computeIfAbsent(current.gameState(),
+                            historyState -> new HashMap<>());
 
-            var labels = gameStateLabels.apply(current.gameState.state());
-            labels.or(allSuspectsLabel);
+            EveState<S> eveState = new EveState<>(current.gameState(), initialSuspects);
+            var labels = stateLabels.apply(eveState);
             assert dpa.edges(current.automatonState(), labels).size() == 1;
             Edge<Object> automatonEdge = dpa.edge(current.automatonState(), labels);
             assert automatonEdge != null;
             Object automatonSuccessor = automatonEdge.successor();
-            historyGame.transitions(current.gameState).map(Transition::destination).forEach(historySuccessor -> {
-                var successor = new NonDeviationState<>(historySuccessor, automatonSuccessor);
-                if (nonDeviationStates.add(successor)) {
-                    nonDeviationQueue.add(successor);
-                }
-            });
+            if (proposedMove == null) {
+                historyGame.forEachTransition(current.gameState, transition -> {
+                    var successor = new NonDeviationState<>(transition.destination(), automatonSuccessor);
+                    if (nonDeviationStates.add(successor)) {
+                        nonDeviationQueue.add(successor);
+                    }
+                });
+            }
 
             int priority = maximumPriority - automatonEdge.colours().first().orElse(maximumPriority);
-            EveState<S> eveState = new EveState<>(current.gameState(), initialSuspects);
-            suspectGame.successors(eveState).forEach(adam -> deviationSuccessors.put(current, adam.move(),
-                            suspectGame.deviationSuccessors(adam)
-                                            .map(eve -> new PriorityState<S>(automatonSuccessor, eve, priority))
-                                            .collect(Collectors.toSet())));
+            suspectGame.forEachSuccessor(eveState, adam -> {
+                if (proposedMove != null && !adam.move().equals(proposedMove)) {
+                    return;
+                }
+                IntArrayList adamDeviations = moveDeviations.computeIfAbsent(adam.move(), move -> new IntArrayList());
+                suspectGame.forEachDeviationSuccessor(adam, eve -> adamDeviations
+                                .add(numbering.applyAsInt(new PriorityState<>(automatonSuccessor, eve, priority))));
+            });
         }
-        this.historyStateMap = historyStateMap.build();
-        this.deviationSuccessors = deviationSuccessors.build();
+        this.deviationStates = new HashMap<>(deviations.size());
+        deviations.forEach((historyState, moveDeviations) -> {
+            Map<Move, int[]> moveStates = new HashMap<>(moveDeviations.size());
+            moveDeviations.forEach((move, deviationIds) -> moveStates.put(move,
+                            deviationIds.intStream().distinct().toArray()));
+            this.deviationStates.put(historyState, moveStates);
+        });
 
-        ImmutableSetMultimap.Builder<PriorityState<S>, PriorityState<S>> successors = ImmutableSetMultimap.builder();
-        Set<PriorityState<S>> reached = this.deviationSuccessors.values().stream().flatMap(Collection::stream)
-                        .collect(Collectors.toSet());
-        Queue<PriorityState<S>> queue = new ArrayDeque<>(reached);
+        // Vertices are explored in the order of their ids, hence their rows are appended in order
+        IntArrayList offsets = new IntArrayList();
+        IntArrayList targets = new IntArrayList();
+        IntArrayList priorities = new IntArrayList();
+        BitSet eveVertices = new BitSet();
+        for (int id = 0; id < states.size(); id++) {
+            PriorityState<S> current = states.get(id);
+            int start = targets.size();
+            offsets.add(start);
+            priorities.add(current.priority());
 
-        while (!queue.isEmpty()) {
-            var current = queue.poll();
+            if (current.isEve()) {
+                eveVertices.set(id);
+                EveState<S> eveState = current.eve();
+                BitSet label = stateLabels.apply(eveState);
+                assert dpa.edges(current.automatonState(), label).size() == 1;
+                Edge<Object> automatonEdge = dpa.edge(current.automatonState(), label);
+                assert automatonEdge != null;
+                int priority = maximumPriority - automatonEdge.colours().first().orElse(maximumPriority);
+                suspectGame.forEachSuccessor(eveState, adam -> targets.add(numbering
+                                .applyAsInt(new PriorityState<>(automatonEdge.successor(), adam, priority))));
+            } else {
+                suspectGame.forEachSuccessor(current.adam(), successor -> targets.add(numbering
+                                .applyAsInt(new PriorityState<>(current.automatonState(), successor, 0))));
+            }
+            assert targets.size() > start : "No successors in %s".formatted(current);
 
-            EveState<S> eveState = current.eve();
-            BitSet label = gameStateLabels.apply(eveState.gameState());
-            eveState.suspects().stream().map(Agent::name).mapToInt(propositionIndex::getInt).filter(i -> i >= 0)
-                            .forEach(label::set);
-
-            assert dpa.edges(current.automatonState(), label).size() == 1;
-            Edge<Object> automatonEdge = dpa.edge(current.automatonState(), label);
-            assert automatonEdge != null;
-            int priority = maximumPriority - automatonEdge.colours().first().orElse(maximumPriority);
-
-            suspectGame.successors(eveState).forEach(adam -> {
-                var adamSuccessor = new PriorityState<S>(automatonEdge.successor(), adam, priority);
-                successors.put(current, adamSuccessor);
-                suspectGame.successors(adam).forEach(successor -> {
-                    var eveSuccessor = new PriorityState<S>(automatonEdge.successor(), successor, 0);
-                    successors.put(adamSuccessor, eveSuccessor);
-                    if (reached.add(eveSuccessor)) {
-                        queue.add(eveSuccessor);
-                    }
-                });
-            });
+            // Remove duplicate successors
+            int[] elements = targets.elements();
+            Arrays.sort(elements, start, targets.size());
+            int end = start;
+            for (int i = start; i < targets.size(); i++) {
+                if (i == start || elements[i] != elements[end - 1]) {
+                    elements[end++] = elements[i];
+                }
+            }
+            targets.size(end);
         }
-        this.successors = successors.build();
+        offsets.add(targets.size());
+
+        this.states = states;
+        this.ids = ids;
+        this.priorities = priorities.toIntArray();
+        this.eveVertices = eveVertices;
+        this.offsets = offsets.toIntArray();
+        this.targets = targets.toIntArray();
     }
 
+    /**
+     * Builds the parity game for the given automaton. The automaton reads the labels of the concurrent game together
+     * with one proposition per agent (given by {@code agentPropositions}) indicating whether that agent is a suspect,
+     * with propositions shifted according to {@code labelProjection}.
+     */
     public static <S> SuspectParityGame<S> create(SuspectGame<S> suspectGame, EveState<S> eveState,
-                    Automaton<Object, ParityAcceptance> dpa) {
+                    Automaton<Object, ParityAcceptance> dpa, LabelProjection labelProjection,
+                    Object2IntMap<Agent> agentPropositions) {
+        checkArgument(dpa.acceptance().parity().equals(ParityAcceptance.Parity.MIN_EVEN));
+        return new SuspectParityGame<>(suspectGame, eveState, null, dpa, labelProjection, agentPropositions);
+    }
+
+    /**
+     * Builds the parity game of the deviations from a single proposed move in the given state, i.e. the only
+     * non-deviation state is the given one and {@link #deviationStates} is only defined for its history state and the
+     * proposed move. The automaton has to describe the goal from this state on.
+     */
+    public static <S> SuspectParityGame<S> createLocal(SuspectGame<S> suspectGame, EveState<S> eveState,
+                    Move proposedMove, Automaton<Object, ParityAcceptance> dpa, LabelProjection labelProjection,
+                    Object2IntMap<Agent> agentPropositions) {
         checkArgument(dpa.acceptance().parity().equals(ParityAcceptance.Parity.MIN_EVEN));
-        return new SuspectParityGame<>(suspectGame, eveState, dpa);
+        return new SuspectParityGame<>(suspectGame, eveState, proposedMove, dpa, labelProjection, agentPropositions);
     }
 
     @Override
     public Set<PriorityState<S>> states() {
-        return successors.keySet();
+        return Collections.unmodifiableSet(ids.keySet());
+    }
+
+    @Override
+    public void forEachState(Consumer<PriorityState<S>> action) {
+        states.forEach(action);
     }
 
     @Override
     public Stream<PriorityState<S>> successors(PriorityState<S> current) {
-        assert !successors.get(current).isEmpty() : "No successors in %s".formatted(current);
-        return successors.get(current).stream();
+        int id = ids.getInt(current);
+        assert id >= 0 : "Unknown state %s".formatted(current);
+        return IntStream.range(offsets[id], offsets[id + 1]).mapToObj(edge -> states.get(targets[edge]));
     }
 
     @Override
@@ -161,12 +231,45 @@ public final class SuspectParityGame<S> implements ParityGame<PriorityState<S>>
         return state.isEve() ? Player.ODD : Player.EVEN;
     }
 
+    /** The number of vertices, which have the ids {@code [0, size())}. */
+    public int size() {
+        return states.size();
+    }
+
+    public PriorityState<S> state(int id) {
+        return states.get(id);
+    }
+
+    public int priority(int id) {
+        return priorities[id];
+    }
+
+    public Player owner(int id) {
+        return eveVertices.get(id) ? Player.ODD : Player.EVEN;
+    }
+
+    /** The successors of a vertex are the targets of the edges {@code [edgeStart(id), edgeEnd(id))}. */
+    public int edgeStart(int id) {
+        return offsets[id];
+    }
+
+    public int edgeEnd(int id) {
+        return offsets[id + 1];
+    }
+
+    public int target(int edge) {
+        return targets[edge];
+    }
+
+    /** The history states reached without deviation, for which {@link #deviationStates} is defined. */
+    public Set<HistoryGame.HistoryState<S>> historyStates() {
+        return Collections.unmodifiableSet(deviationStates.keySet());
+    }
+
     public Stream<PriorityState<S>> deviationStates(HistoryGame.HistoryState<S> historyState, Move move) {
-        assert historyStateMap.containsKey(historyState);
-        var states = historyStateMap.get(historyState);
-        assert !states.isEmpty();
-        return states.stream().map(s -> this.deviationSuccessors.get(s, move)).peek(Objects::requireNonNull)
-                        .flatMap(Collection::stream);
+        assert deviationStates.containsKey(historyState);
+        int[] deviationIds = Objects.requireNonNull(deviationStates.get(historyState).get(move));
+        return Arrays.stream(deviationIds).mapToObj(states::get);
     }
 
     private record NonDeviationState<S>(HistoryGame.HistoryState<S> gameState, Object automatonState) {
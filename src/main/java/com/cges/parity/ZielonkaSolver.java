@@ -0,0 +1,113 @@
+package com.cges.parity;
+
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import javax.annotation.Nullable;
+
+/**
+ * Zielonka's recursive algorithm on an {@link IndexedParityGame}. For the largest priority p of a subgame, owned by
+ * player a, the subgame without the a-attractor of the p vertices is solved recursively. If the opponent wins nothing
+ * there, a wins the subgame. Otherwise the opponent attractor of its winning region is won by the opponent and the
+ * rest is solved again. This second step is a loop, so the recursion depth is bounded by the number of priorities.
+ *
+ * <p>Given a pool, the attractors of large games are computed in parallel, which is where the algorithm spends most of
+ * its time.</p>
+ */
+public final class ZielonkaSolver implements ParityGameSolver {
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    @Nullable
+    private final ForkJoinPool pool;
+
+    public ZielonkaSolver() {
+        this.pool = null;
+    }
+
+    public ZielonkaSolver(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public <S> Solution<S> solve(ParityGame<S> parityGame) {
+        IndexedParityGame<S> game = IndexedParityGame.of(parityGame);
+        BitSet all = new BitSet(game.size());
+        all.set(0, game.size());
+        Attractor attractor = pool == null || game.size() < PARALLEL_THRESHOLD
+                        ? new SequentialAttractor(game)
+                        : new ParallelAttractor(game, pool);
+        var solver = new Instance(game, attractor);
+        BitSet[] winning = solver.solve(all);
+        assert winning[Player.ODD.id()].equals(PriorityPromotionSolver.oddWinning(game))
+                        : "Zielonka and priority promotion disagree";
+        return game.solution(winning[Player.ODD.id()], solver.strategy);
+    }
+
+    /** The winning region of odd, computed sequentially. Used to cross-check the other solvers. */
+    static BitSet oddWinning(IndexedParityGame<?> game) {
+        BitSet all = new BitSet(game.size());
+        all.set(0, game.size());
+        return new Instance(game, new SequentialAttractor(game)).solve(all)[Player.ODD.id()];
+    }
+
+    private static final class Instance {
+        private final IndexedParityGame<?> game;
+        private final Attractor attractor;
+        final int[] strategy;
+
+        Instance(IndexedParityGame<?> game, Attractor attractor) {
+            this.game = game;
+            this.attractor = attractor;
+            this.strategy = new int[game.size()];
+        }
+
+        // Returns the winning regions of both players, indexed by player id
+        BitSet[] solve(BitSet subgame) {
+            BitSet[] winning = {new BitSet(), new BitSet()};
+            BitSet remaining = (BitSet) subgame.clone();
+            while (!remaining.isEmpty()) {
+                int maximum = -1;
+                for (int vertex = remaining.nextSetBit(0); vertex >= 0; vertex = remaining.nextSetBit(vertex + 1)) {
+                    maximum = Math.max(maximum, game.priority(vertex));
+                }
+                int player = maximum % 2;
+                int opponent = 1 - player;
+
+                BitSet top = new BitSet();
+                for (int vertex = remaining.nextSetBit(0); vertex >= 0; vertex = remaining.nextSetBit(vertex + 1)) {
+                    if (game.priority(vertex) == maximum) {
+                        top.set(vertex);
+                    }
+                }
+                attractor.attract(remaining::get, top, player, strategy);
+                BitSet rest = (BitSet) remaining.clone();
+                rest.andNot(top);
+                BitSet[] restWinning = solve(rest);
+
+                if (restWinning[opponent].isEmpty()) {
+                    // The player wins everything, from the top vertices by staying in the subgame
+                    for (int vertex = top.nextSetBit(0); vertex >= 0; vertex = top.nextSetBit(vertex + 1)) {
+                        if (game.owner(vertex) == player && game.priority(vertex) == maximum) {
+                            strategy[vertex] = successorIn(vertex, remaining);
+                        }
+                    }
+                    winning[player].or(remaining);
+                    break;
+                }
+                BitSet opponentWinning = restWinning[opponent];
+                attractor.attract(remaining::get, opponentWinning, opponent, strategy);
+                winning[opponent].or(opponentWinning);
+                remaining.andNot(opponentWinning);
+            }
+            return winning;
+        }
+
+        private int successorIn(int vertex, BitSet set) {
+            for (int edge = game.edgeStart(vertex); edge < game.edgeEnd(vertex); edge++) {
+                if (set.get(game.target(edge))) {
+                    return game.target(edge);
+                }
+            }
+            throw new IllegalStateException("Vertex %d has no successor in the subgame".formatted(vertex));
+        }
+    }
+}
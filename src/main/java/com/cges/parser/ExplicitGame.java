@@ -2,17 +2,19 @@ package com.cges.parser;
 
 import com.cges.model.Action;
 import com.cges.model.Agent;
+import com.cges.model.AgentIndex;
 import com.cges.model.ConcurrentGame;
 import com.cges.model.Move;
 import com.cges.model.Transition;
 import com.cges.output.DotFormatted;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.SetMultimap;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -21,13 +23,12 @@ import owl.ltl.LabelledFormula;
 
 final class ExplicitGame<S> implements ConcurrentGame<S> {
     private final String name;
-    private final Set<Agent> agents;
-    private final Map<String, Agent> agentsByName;
+    private final AgentIndex agents;
     private final SetMultimap<S, Transition<S>> transitions;
     private final S initialState;
     private final Set<S> states;
     private final List<String> atomicPropositions;
-    private final Function<S, Set<String>> labels;
+    private final Map<S, BitSet> labels;
 
     public ExplicitGame(String name, Collection<Agent> agents, List<String> atomicPropositions, S initialState,
                     Set<S> states, SetMultimap<S, Transition<S>> transitions, Function<S, Set<String>> labels) {
@@ -38,13 +39,20 @@ final class ExplicitGame<S> implements ConcurrentGame<S> {
         assert states.stream().map(labels).flatMap(Collection::stream)
                         .allMatch(Set.copyOf(atomicPropositions)::contains);
 
-        this.agents = Set.copyOf(agents);
+        this.agents = AgentIndex.of(agents.stream().sorted().toList());
         this.atomicPropositions = List.copyOf(atomicPropositions);
         this.initialState = initialState;
         this.states = Set.copyOf(states);
         this.transitions = ImmutableSetMultimap.copyOf(transitions);
-        this.labels = labels;
-        this.agentsByName = agents.stream().collect(Collectors.toMap(Agent::name, a -> a));
+        Map<String, Integer> propositionIndices = new HashMap<>();
+        for (String proposition : this.atomicPropositions) {
+            propositionIndices.put(proposition, propositionIndices.size());
+        }
+        this.labels = this.states.stream().collect(Collectors.toUnmodifiableMap(Function.identity(), state -> {
+            BitSet set = new BitSet();
+            labels.apply(state).stream().map(propositionIndices::get).forEach(set::set);
+            return set;
+        }));
     }
 
     @Override
@@ -63,13 +71,8 @@ final class ExplicitGame<S> implements ConcurrentGame<S> {
     }
 
     @Override
-    public Set<Agent> agents() {
-        return Set.copyOf(agents);
-    }
-
-    @Override
-    public Agent agent(String name) {
-        return Objects.requireNonNull(agentsByName.get(name));
+    public AgentIndex agentIndex() {
+        return agents;
     }
 
     @Override
@@ -83,8 +86,9 @@ final class ExplicitGame<S> implements ConcurrentGame<S> {
     }
 
     @Override
-    public Set<String> labels(S state) {
-        return labels.apply(state);
+    public BitSet labelBits(S state) {
+        assert labels.containsKey(state);
+        return labels.get(state);
     }
 
     @Override
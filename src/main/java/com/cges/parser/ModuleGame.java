@@ -2,13 +2,13 @@ package com.cges.parser;
 
 import com.cges.model.Action;
 import com.cges.model.Agent;
+import com.cges.model.AgentIndex;
 import com.cges.model.ConcurrentGame;
 import com.cges.model.Move;
 import com.cges.model.Transition;
 import com.cges.output.DotFormatted;
 import com.google.common.collect.Lists;
 import de.tum.in.naturals.Indices;
-import de.tum.in.naturals.set.NatBitSets;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.BitSet;
@@ -36,12 +36,12 @@ public class ModuleGame<S> implements ConcurrentGame<ModuleState<S>> {
 
     private final String name;
     private final List<String> propositions;
-    private final Set<Agent> agents;
-    private final Map<Agent, Integer> agentIndices;
+    private final AgentIndex agents;
     private final List<Module<S>> modules;
     private final LabelledFormula goal;
     private final ModuleState<S> initialState;
     private final Set<ModuleState<S>> states;
+    private final Map<ModuleState<S>, BitSet> labels;
     private final Map<ModuleState<S>, Set<Transition<ModuleState<S>>>> transitions;
 
     public ModuleGame(String name, List<String> propositions, Collection<Module<S>> modules, LabelledFormula goal) {
@@ -50,22 +50,20 @@ public class ModuleGame<S> implements ConcurrentGame<ModuleState<S>> {
 
         this.modules = List.copyOf(modules);
         this.goal = goal;
-        this.agents = this.modules.stream().map(Module::agent).collect(Collectors.toUnmodifiableSet());
-        Map<Agent, Integer> agentIndices = new HashMap<>();
-        Indices.forEachIndexed(this.modules, (module, index) -> agentIndices.put(module.agent(), index));
-
-        assert Set.copyOf(agentIndices.values()).size() == agents.size();
-        this.agentIndices = Map.copyOf(agentIndices);
+        // Agent ids coincide with module indices, so states and moves can be looked up by agent id directly
+        this.agents = AgentIndex.of(Lists.transform(this.modules, Module::agent));
 
         initialState = new ModuleState<>(List.copyOf(Lists.transform(this.modules, Module::initialState)),
-                        this.agentIndices);
+                        this.agents);
 
         Map<ModuleState<S>, Set<Transition<ModuleState<S>>>> transitions = new HashMap<>();
+        Map<ModuleState<S>, BitSet> stateLabels = new HashMap<>();
         Set<ModuleState<S>> states = new HashSet<>(List.of(initialState));
         Queue<ModuleState<S>> queue = new ArrayDeque<>(states);
         while (!queue.isEmpty()) {
             ModuleState<S> state = queue.poll();
             var labels = label(state, this.modules);
+            stateLabels.put(state, labels);
             List<List<Map.Entry<Action, S>>> agentTransitions = new ArrayList<>(agents.size());
             ListIterator<S> iterator = state.states().listIterator();
             while (iterator.hasNext()) {
@@ -74,8 +72,8 @@ public class ModuleGame<S> implements ConcurrentGame<ModuleState<S>> {
                 agentTransitions.add(List.copyOf(this.modules.get(index).successors(agentState, labels).entrySet()));
             }
             var stateTransitions = Lists.cartesianProduct(agentTransitions).stream().map(transition -> new Transition<>(
-                            new ModuleMove(Lists.transform(transition, Map.Entry::getKey), this.agentIndices),
-                            new ModuleState<>(Lists.transform(transition, Map.Entry::getValue), this.agentIndices)))
+                            new ModuleMove(Lists.transform(transition, Map.Entry::getKey), this.agents),
+                            new ModuleState<>(Lists.transform(transition, Map.Entry::getValue), this.agents)))
                             .collect(Collectors.toSet());
             transitions.put(state, stateTransitions);
             for (var transition : stateTransitions) {
@@ -85,7 +83,8 @@ public class ModuleGame<S> implements ConcurrentGame<ModuleState<S>> {
                 }
             }
         }
-        this.states = states;
+        this.states = Set.copyOf(states);
+        this.labels = Map.copyOf(stateLabels);
         this.transitions = Map.copyOf(transitions);
     }
 
@@ -100,8 +99,8 @@ public class ModuleGame<S> implements ConcurrentGame<ModuleState<S>> {
     }
 
     @Override
-    public Set<Agent> agents() {
-        return Set.copyOf(agents);
+    public AgentIndex agentIndex() {
+        return agents;
     }
 
     @Override
@@ -111,7 +110,7 @@ public class ModuleGame<S> implements ConcurrentGame<ModuleState<S>> {
 
     @Override
     public Set<ModuleState<S>> states() {
-        return Set.copyOf(states);
+        return states;
     }
 
     @Override
@@ -121,9 +120,9 @@ public class ModuleGame<S> implements ConcurrentGame<ModuleState<S>> {
     }
 
     @Override
-    public Set<String> labels(ModuleState<S> state) {
-        return NatBitSets.asSet(label(state, modules)).intStream().mapToObj(propositions::get)
-                        .collect(Collectors.toSet());
+    public BitSet labelBits(ModuleState<S> state) {
+        assert labels.containsKey(state);
+        return labels.get(state);
     }
 
     @Override
@@ -137,25 +136,24 @@ public class ModuleGame<S> implements ConcurrentGame<ModuleState<S>> {
 
     private static final class ModuleMove implements Move, DotFormatted {
         private final List<Action> transition;
-        private final Map<Agent, Integer> agentIndices;
+        private final AgentIndex agents;
         private final int hashCode;
 
-        private ModuleMove(List<Action> transition, Map<Agent, Integer> agentIndices) {
+        private ModuleMove(List<Action> transition, AgentIndex agents) {
             this.transition = List.copyOf(transition);
             this.hashCode = transition.hashCode();
-            this.agentIndices = Map.copyOf(agentIndices);
+            this.agents = agents;
         }
 
         @Override
         public Action action(Agent agent) {
-            return transition.get(agentIndices.get(agent));
+            return transition.get(agents.id(agent));
         }
 
         @Override
         public String toString() {
-            return agentIndices.entrySet().stream().sorted(Map.Entry.comparingByKey(Comparator.comparing(Agent::name)))
-                            .map(Map.Entry::getValue).map(transition::get).map(Action::name)
-                            .collect(Collectors.joining(",", "[", "]"));
+            return agents.list().stream().sorted(Comparator.comparing(Agent::name)).map(agents::id)
+                            .map(transition::get).map(Action::name).collect(Collectors.joining(",", "[", "]"));
         }
 
         @Override
@@ -165,7 +163,7 @@ public class ModuleGame<S> implements ConcurrentGame<ModuleState<S>> {
 
         @Override
         public boolean equals(Object obj) {
-            assert (obj instanceof ModuleMove that && agentIndices.equals(that.agentIndices));
+            assert (obj instanceof ModuleMove that && agents == that.agents);
             if (this == obj) {
                 return true;
             }
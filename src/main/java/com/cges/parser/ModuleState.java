@@ -1,28 +1,28 @@
 package com.cges.parser;
 
 import com.cges.model.Agent;
+import com.cges.model.AgentIndex;
 import com.cges.output.DotFormatted;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.stream.Collectors;
 
 public final class ModuleState<S> implements DotFormatted {
     public static final Object[] EMPTY = new Object[0];
 
     private final S[] states;
-    private final Map<Agent, Integer> agentIndices;
+    private final AgentIndex agents;
     private final int hashCode;
 
     @SuppressWarnings("unchecked")
-    public ModuleState(List<S> states, Map<Agent, Integer> agentIndices) {
+    public ModuleState(List<S> states, AgentIndex agents) {
         this.states = (S[]) states.toArray(EMPTY);
-        this.agentIndices = Map.copyOf(agentIndices);
+        this.agents = agents;
         this.hashCode = Arrays.hashCode(this.states);
     }
 
     public S state(Agent agent) {
-        return states[agentIndices.get(agent)];
+        return states[agents.id(agent)];
     }
 
     @Override
@@ -41,7 +41,7 @@ public final class ModuleState<S> implements DotFormatted {
 
     @Override
     public boolean equals(Object obj) {
-        assert obj instanceof ModuleState<?> that && agentIndices.equals(that.agentIndices);
+        assert obj instanceof ModuleState<?> that && agents == that.agents;
         if (this == obj) {
             return true;
         }